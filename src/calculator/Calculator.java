@@ -1,5 +1,11 @@
 package calculator;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.swing.SwingUtilities;
+
 /**
  * Calculator - Práctica 2 - Asignatura de Sistemas Interactivos.
  *
@@ -10,6 +16,17 @@ package calculator;
  *
  * Functionality and layout was inspired by the iPhone iOS 13 Calculator App.
  *
+ * It can also run without a display: "--batch [file]" replays keystroke
+ * tapes through the model and prints the results (see CalculatorBatch),
+ * "--csv expression [file]" evaluates an expression on every row of a CSV
+ * file (see CalculatorCsv) and "--server [port]" serves calculator sessions
+ * on a local socket (see CalculatorServer).
+ *
+ * "--record file" records the actions of the user in a binary log, which
+ * "--replay file" replays without a display (see CalculatorRecorder).
+ * "--startup-probe" exits as soon as the window is shown, printing the time it
+ * took since the JVM started (see the startup benchmark).
+ *
  * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
  */
 public final class Calculator {
@@ -18,9 +35,95 @@ public final class Calculator {
      * The main function: starts the application.
      *
      * @param args the command line arguments
+     * @throws Exception if a headless mode fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            CalculatorBatch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--csv")) {
+            CalculatorCsv.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            CalculatorServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--replay")) {
+            CalculatorReplayer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // The model and the recorder don't need Swing: prepare them here
+        CalculatorModel model = new CalculatorModel();
+        model.setHistoryDepth(CalculatorModel.DEFAULT_HISTORY_DEPTH);
+        model.setHistory(new CalculatorHistory(
+                CalculatorHistory.DEFAULT_CAPACITY));
+
+        CalculatorRecorder recorder
+                = (args.length > 1 && args[0].equals("--record"))
+                ? startRecording(args[1]) : null;
+
+        boolean startupProbe = args.length > 0
+                && args[0].equals("--startup-probe");
+
+        // Swing components must be created on the event dispatch thread
+        SwingUtilities.invokeLater(() -> {
+            try {
+                startGui(model, recorder, startupProbe);
+            } catch (RuntimeException e) {
+                // Without a window there is nothing left to do
+                e.printStackTrace();
+                System.exit(1);
+            }
+        });
+    }
+
+    /**
+     * Creates the recorder of the actions of the user, closed when the
+     * application exits.
+     *
+     * @param file the file where the actions are recorded.
+     * @return the recorder.
+     * @throws IOException if the file can't be written.
+     */
+    private static CalculatorRecorder startRecording(String file)
+            throws IOException {
+        CalculatorRecorder recorder = new CalculatorRecorder(
+                new FileOutputStream(file));
+
+        // The window closes with System.exit
+        Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+
+        return recorder;
+    }
+
+    /**
+     * Assembles all the pieces of the MVC. Must run on the event dispatch
+     * thread.
+     *
+     * @param model the model.
+     * @param recorder the recorder of the actions of the user, or null.
+     * @param startupProbe true to exit as soon as the window is shown,
+     * printing how long it took since the JVM started.
      */
-    public static void main(String[] args) {
-        // Assemble all the pieces of the MVC
-        new CalculatorController(new CalculatorModel(), new CalculatorView());
+    private static void startGui(CalculatorModel model,
+            CalculatorRecorder recorder, boolean startupProbe) {
+        CalculatorView view = new CalculatorView();
+        CalculatorController controller = new CalculatorController(model,
+                view);
+        controller.setRecorder(recorder);
+
+        if (startupProbe) {
+            // Runs after the events that paint the window for the first time
+            SwingUtilities.invokeLater(() -> {
+                long now = System.currentTimeMillis();
+                long start = ManagementFactory.getRuntimeMXBean()
+                        .getStartTime();
+                System.out.println("Startup: " + (now - start) + " ms");
+                System.exit(0);
+            });
+        }
     }
 }
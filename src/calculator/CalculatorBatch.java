@@ -0,0 +1,521 @@
+package calculator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Headless batch evaluator for the calculator.
+ *
+ * Replays keystroke tapes straight into a CalculatorModel without creating
+ * any Swing component, so it can run on servers without a display.
+ *
+ * A tape is a text file (or the standard input) with one session per line.
+ * Every line is a sequence of the characters understood by the keyboard
+ * controller (digits, '+', '-', '*', '/', '=', '.', ',', 'c', 'r', 's', 'm',
+ * the keys of the scientific operations, see CalculatorOperation.forKey, the
+ * memory keys 'p' for M+, 'n' for M-, 'g' for MR and 'x' for MC, and their
+ * uppercase versions). Unknown characters are ignored. Every session starts
+ * with the memory register cleared. For every session the content of the
+ * result display is written as one output line.
+ *
+ * With the option "--expressions" every line is an expression instead (like
+ * "12.5*(3+4)/2", see CalculatorExpression) and the output is its result.
+ * The option "--register name=value" (which can be repeated) defines a
+ * register the expressions can refer to by name.
+ *
+ * The option "--cache [capacity]" keeps the results of the last operations
+ * (see CalculatorResultCache), which pays off when the same operations are
+ * repeated over and over.
+ *
+ * The option "--decimal [digits]" replays the sessions in arbitrary-precision
+ * mode, with the given number of significant digits (34 by default).
+ *
+ * The option "--policy digits,scale[,mode]" changes the numeric policy (see
+ * CalculatorPolicy): "12,2,HALF_EVEN" rounds the results to cents with the
+ * banker's rounding, for example.
+ *
+ * The option "--mmap" replays a tape file by memory-mapping it (see
+ * CalculatorTapeReader), which avoids creating a String for every line.
+ *
+ * The option "--legacy-display" shows the results like older versions did
+ * ("5.0" instead of "5", see CalculatorModel.setLegacyDisplay), and edits
+ * the results like them, so the outputs recorded with them can be compared
+ * line by line.
+ *
+ * Sessions are independent, so they can also be sharded across several worker
+ * threads (each one with its own model). The results are always written in
+ * the same order as the input.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorBatch {
+
+    /**
+     * Number of sessions read and evaluated at a time in parallel mode.
+     */
+    private final static int PARALLEL_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Default capacity of the result cache.
+     */
+    private final static int DEFAULT_CACHE_CAPACITY = 1 << 16;
+
+    private final CalculatorModel model;
+    private final boolean expressions;
+    private final CalculatorResultCache cache;
+    private boolean legacyDisplay;
+
+    private long sessions;
+    private long keys;
+
+    /**
+     * Constructor for class CalculatorBatch.
+     */
+    public CalculatorBatch() {
+        this(false, 0, null);
+    }
+
+    /**
+     * Constructor for class CalculatorBatch.
+     *
+     * @param expressions true if the sessions are expressions instead of keys.
+     * @param cacheCapacity capacity of the result cache (0 for no cache).
+     * @param mc precision of the arbitrary-precision mode (null for doubles).
+     */
+    public CalculatorBatch(boolean expressions, int cacheCapacity,
+            MathContext mc) {
+        this.model = new CalculatorModel();
+        this.expressions = expressions;
+        this.cache = (cacheCapacity > 0)
+                ? new CalculatorResultCache(cacheCapacity,
+                        CalculatorResultCache.Eviction.LRU)
+                : null;
+
+        model.setResultCache(cache);
+        model.setMathContext(mc);
+    }
+
+    /**
+     * Feeds a single key to the model, the same way the keyboard controller
+     * would do it.
+     *
+     * @param m the model that will receive the key.
+     * @param key the character typed.
+     * @return true if the key was understood, false if it was ignored.
+     */
+    static boolean applyKey(CalculatorModel m, char key) {
+        switch (key) {
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                m.insertNumber(key - '0');
+                return true;
+            case 'c':
+            case 'C':
+            case 'r':
+            case 'R':
+                m.reset();
+                return true;
+            case 's':
+            case 'S':
+            case 'm':
+            case 'M':
+                m.switchSign();
+                return true;
+            case '-':
+                m.setOperation('-');
+                return true;
+            case '+':
+                m.setOperation('+');
+                return true;
+            case '.':
+            case ',':
+                m.insertDot();
+                return true;
+            case '/':
+                m.setOperation('÷');
+                return true;
+            case '*':
+                m.setOperation('×');
+                return true;
+            case '=':
+                m.calculate();
+                return true;
+            case 'p':
+            case 'P':
+                m.memoryAdd();
+                return true;
+            case 'n':
+            case 'N':
+                m.memorySubtract();
+                return true;
+            case 'g':
+            case 'G':
+                m.memoryRecall();
+                return true;
+            case 'x':
+            case 'X':
+                m.memoryClear();
+                return true;
+            default:
+                CalculatorOperation operation = CalculatorOperation.forKey(key);
+                if (operation == null) {
+                    return false;
+                }
+                if (operation.isBinary()) {
+                    m.setOperation(operation.getSymbol());
+                } else {
+                    m.applyFunction(operation);
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Replays a single session on a freshly reset model (with the memory
+     * register cleared, if the session is made of keys).
+     *
+     * @param tape the keys (or the expression) of the session.
+     * @return the content of the result display at the end of the session.
+     */
+    public String evaluate(CharSequence tape) {
+        model.reset();
+
+        if (expressions) {
+            model.evaluate(tape.toString());
+            sessions++;
+            return model.getResultDisplay();
+        }
+
+        // Sessions don't share the memory register either
+        model.memoryClear();
+        for (int i = 0; i < tape.length(); i++) {
+            if (applyKey(model, tape.charAt(i))) {
+                keys++;
+            }
+        }
+
+        sessions++;
+        return model.getResultDisplay();
+    }
+
+    /**
+     * Replays every session read from the input and writes one result per
+     * line to the output.
+     *
+     * @param in the tape to be replayed.
+     * @param out where the results are written.
+     * @throws IOException if the tape can't be read or the results written.
+     */
+    public void run(BufferedReader in, Writer out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            out.write(evaluate(line));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * Replays every session read from the input using several worker threads
+     * and writes one result per line to the output, in input order.
+     *
+     * The tape is processed in chunks, so memory usage doesn't depend on the
+     * size of the input. Every worker has its own model and result cache, and
+     * the sessions and keys they replay are added to the counters of this
+     * evaluator.
+     *
+     * @param in the tape to be replayed.
+     * @param out where the results are written.
+     * @param threads number of worker threads.
+     * @throws IOException if the tape can't be read or the results written.
+     */
+    public void runParallel(BufferedReader in, Writer out, int threads)
+            throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Queue<CalculatorBatch> workers = new ConcurrentLinkedQueue<>();
+        ThreadLocal<CalculatorBatch> worker = ThreadLocal.withInitial(() -> {
+            CalculatorBatch b = new CalculatorBatch(expressions,
+                    (cache == null) ? 0 : cache.getCapacity(),
+                    model.getMathContext());
+            b.getRegisters().copyFrom(model.getRegisters());
+            b.setPolicy(model.getPolicy());
+            b.setLegacyDisplay(legacyDisplay);
+            workers.add(b);
+            return b;
+        });
+
+        List<String> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+        String[] results = new String[PARALLEL_CHUNK_SIZE];
+
+        try {
+            String line;
+            do {
+                chunk.clear();
+                while (chunk.size() < PARALLEL_CHUNK_SIZE
+                        && (line = in.readLine()) != null) {
+                    chunk.add(line);
+                }
+
+                int n = chunk.size();
+                pool.submit(() -> IntStream.range(0, n).parallel().forEach(
+                        i -> results[i] = worker.get().evaluate(chunk.get(i))))
+                        .get();
+
+                for (int i = 0; i < n; i++) {
+                    out.write(results[i]);
+                    out.write('\n');
+                }
+            } while (chunk.size() == PARALLEL_CHUNK_SIZE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        out.flush();
+
+        for (CalculatorBatch b : workers) {
+            sessions += b.getSessions();
+            keys += b.getKeys();
+            if (b.getResultCache() != null) {
+                System.err.println("Worker cache: " + b.getResultCache());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sessions replayed so far.
+     *
+     * @return the number of sessions replayed so far.
+     */
+    public long getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the number of keys understood so far.
+     *
+     * @return the number of keys understood so far.
+     */
+    public long getKeys() {
+        return keys;
+    }
+
+    /**
+     * Sets the numeric policy of the sessions.
+     *
+     * @param policy the numeric policy.
+     */
+    public void setPolicy(CalculatorPolicy policy) {
+        model.setPolicy(policy);
+    }
+
+    /**
+     * Shows the results of the sessions like older versions did (see
+     * CalculatorModel.setLegacyDisplay).
+     *
+     * @param legacy true to show the results like older versions.
+     */
+    public void setLegacyDisplay(boolean legacy) {
+        legacyDisplay = legacy;
+        model.setLegacyDisplay(legacy);
+    }
+
+    /**
+     * Returns the registers the sessions of this evaluator can refer to.
+     *
+     * @return the registers.
+     */
+    public CalculatorRegisters getRegisters() {
+        return model.getRegisters();
+    }
+
+    /**
+     * Returns the result cache of this evaluator.
+     *
+     * @return the result cache, or null if there is none.
+     */
+    public CalculatorResultCache getResultCache() {
+        return cache;
+    }
+
+    /**
+     * Runs the batch mode from the command line.
+     *
+     * Reads the tape from the file given as last argument (or from the
+     * standard input if there is none or it is "-"), writes the results to
+     * the standard output and a throughput summary to the standard error.
+     *
+     * The option "--parallel [threads]" shards the sessions across worker
+     * threads (as many as available processors by default), and the option
+     * "--expressions" reads expressions instead of keys. The option "--cache
+     * [capacity]" enables the result cache and prints its counters at the
+     * end, the option "--decimal [digits]" selects the arbitrary-precision
+     * mode and the option "--mmap" memory-maps the tape file. The option
+     * "--register name=value" defines a register for the expressions and the
+     * option "--policy digits,scale[,mode]" changes the numeric policy. The
+     * option "--legacy-display" shows the results like older versions. The
+     * option "--automaton" replays the keys with CalculatorKeyAutomaton
+     * (only for keys in double mode with the default policy and display,
+     * without worker threads).
+     *
+     * @param args the command line arguments (after "--batch").
+     * @throws IOException if the tape can't be read or the results written.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = 0;
+        boolean expressions = false;
+        int cacheCapacity = 0;
+        MathContext mc = null;
+        boolean mmap = false;
+        boolean automaton = false;
+        boolean legacyDisplay = false;
+        CalculatorPolicy policy = CalculatorPolicy.DEFAULT;
+        CalculatorRegisters registers = new CalculatorRegisters();
+        String file = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--parallel")) {
+                threads = Runtime.getRuntime().availableProcessors();
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    threads = Integer.parseInt(args[++i]);
+                }
+            } else if (args[i].equals("--cache")) {
+                cacheCapacity = DEFAULT_CACHE_CAPACITY;
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    cacheCapacity = Integer.parseInt(args[++i]);
+                }
+            } else if (args[i].equals("--decimal")) {
+                mc = MathContext.DECIMAL128;
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    mc = new MathContext(Integer.parseInt(args[++i]));
+                }
+            } else if (args[i].equals("--mmap")) {
+                mmap = true;
+            } else if (args[i].equals("--policy") && i + 1 < args.length) {
+                policy = CalculatorPolicy.parse(args[++i]);
+            } else if (args[i].equals("--automaton")) {
+                automaton = true;
+            } else if (args[i].equals("--legacy-display")) {
+                legacyDisplay = true;
+            } else if (args[i].equals("--expressions")) {
+                expressions = true;
+            } else if (args[i].equals("--register") && i + 1 < args.length) {
+                String[] register = args[++i].split("=", 2);
+                if (register.length != 2) {
+                    throw new IllegalArgumentException(
+                            "--register expects name=value");
+                }
+                registers.set(register[0].trim(),
+                        Double.parseDouble(register[1].trim()));
+            } else {
+                file = args[i];
+            }
+        }
+
+        CalculatorBatch batch = new CalculatorBatch(expressions,
+                cacheCapacity, mc);
+        batch.getRegisters().copyFrom(registers);
+        batch.setPolicy(policy);
+        batch.setLegacyDisplay(legacyDisplay);
+
+        if (mmap && file != null && !expressions && threads == 0) {
+            CalculatorTapeReader reader = new CalculatorTapeReader(batch.model);
+            Writer out = new BufferedWriter(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                    1 << 16);
+
+            long start = System.nanoTime();
+            reader.replay(Paths.get(file), out);
+            long elapsed = System.nanoTime() - start;
+
+            printSummary(reader.getSessions(), reader.getKeys(), elapsed);
+            return;
+        }
+
+        InputStream input = (file == null || file.equals("-"))
+                ? System.in
+                : new FileInputStream(file);
+
+        if (automaton && !expressions && mc == null && threads == 0
+                && policy.equals(CalculatorPolicy.DEFAULT) && !legacyDisplay) {
+            CalculatorKeyAutomaton replayer = new CalculatorKeyAutomaton();
+            Writer out = new BufferedWriter(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                    1 << 16);
+
+            long start = System.nanoTime();
+            try (InputStream in = input) {
+                replayer.replay(in, out);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            printSummary(replayer.getSessions(), replayer.getKeys(), elapsed);
+            return;
+        }
+
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16)) {
+            Writer out = new BufferedWriter(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                    1 << 16);
+
+            long start = System.nanoTime();
+            if (threads > 0) {
+                batch.runParallel(in, out, threads);
+            } else {
+                batch.run(in, out);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            printSummary(batch.getSessions(), batch.getKeys(), elapsed);
+            if (threads > 0) {
+                System.err.printf("(%d worker threads)%n", threads);
+            } else if (batch.getResultCache() != null) {
+                System.err.println("Cache: " + batch.getResultCache());
+            }
+        }
+    }
+
+    /**
+     * Prints the throughput of a batch run to the standard error.
+     *
+     * @param sessions number of sessions replayed.
+     * @param keys number of keys replayed.
+     * @param elapsed elapsed time in nanoseconds.
+     */
+    static void printSummary(long sessions, long keys, long elapsed) {
+        double seconds = Math.max(elapsed, 1) / 1e9;
+
+        System.err.printf("%d sessions, %d keys in %.3f s: "
+                + "%.0f sessions/s, %.0f keys/s%n",
+                sessions, keys, seconds, sessions / seconds, keys / seconds);
+    }
+}
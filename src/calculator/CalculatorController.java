@@ -1,18 +1,45 @@
 package calculator;
 
+import java.awt.EventQueue;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import javax.swing.JButton;
+import javax.swing.SwingUtilities;
 
 /**
  * The Calculator Controller.
  *
+ * The view is not updated after every action: updates are scheduled on the
+ * event dispatch thread, so a burst of key events (typed faster than they can
+ * be painted) is shown with a single update, and only the fields that have
+ * changed are touched. Setting the system property "calculator.latency" prints
+ * the latency from the time the first event of every burst was created (see
+ * KeyEvent.getWhen) until it is painted.
+ *
  * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
  */
 final class CalculatorController {
 
+    /**
+     * Tells if the latency of the view updates has to be printed.
+     */
+    private final static boolean PRINT_LATENCY
+            = Boolean.getBoolean("calculator.latency");
+
+    /**
+     * The metrics of the application, or null if they are disabled.
+     */
+    private final static CalculatorMetrics METRICS = CalculatorMetrics.get();
+
     private final CalculatorModel model;
     private final CalculatorView view;
 
+    private CalculatorRecorder recorder;
+
+    private boolean viewUpdatePending;
+    private long burstStart;
+    private int burstEvents;
+
     /**
      * Constructor for class Controller.
      *
@@ -26,19 +53,104 @@ final class CalculatorController {
         initController();
     }
 
+    /**
+     * Sets the recorder of the actions of the user (null to stop recording).
+     *
+     * @param r the recorder, or null.
+     */
+    public void setRecorder(CalculatorRecorder r) {
+        recorder = r;
+    }
+
     /**
      * Initializes the CalculatorView.
      */
     private void initView() {
-        updateView();
+        CalculatorHistory history = model.getHistory();
+        if (history != null) {
+            view.getHistoryList().setModel(history);
+        }
+
+        refreshView();
     }
 
     /**
-     * Updates the CalculatorView to the current CalculatorModel state.
+     * Returns the time a handler starts, to measure its latency.
+     *
+     * @return the current time in nanoseconds, or 0 if metrics are disabled.
      */
-    private void updateView() {
-        view.getResultField().setText(model.getResultDisplay());
-        view.getOperationField().setText(model.getOperationDisplay());
+    private static long startHandler() {
+        return (METRICS == null) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Returns the time the event being dispatched was created, on the scale
+     * of System.nanoTime(), so the latency of a burst also counts the time
+     * its first event waited in the event queue and was handled.
+     *
+     * @return the time of the event in nanoseconds (the events only have
+     * milliseconds).
+     */
+    private static long eventTime() {
+        long waited = System.currentTimeMillis()
+                - EventQueue.getMostRecentEventTime();
+        return System.nanoTime() - Math.max(0, waited) * 1_000_000;
+    }
+
+    /**
+     * Schedules an update of the CalculatorView to the current
+     * CalculatorModel state at the end of a handler.
+     *
+     * The update runs after the events already waiting in the event queue, so
+     * all of them are shown with a single update.
+     *
+     * @param start the time the handler started (see startHandler).
+     */
+    private void updateView(long start) {
+        if (METRICS != null) {
+            METRICS.handlerRun(System.nanoTime() - start);
+        }
+
+        burstEvents++;
+        if (viewUpdatePending) {
+            return;
+        }
+
+        viewUpdatePending = true;
+        burstStart = PRINT_LATENCY ? eventTime() : 0;
+        SwingUtilities.invokeLater(this::refreshView);
+    }
+
+    /**
+     * Updates the fields of the CalculatorView that have changed in the
+     * CalculatorModel.
+     */
+    private void refreshView() {
+        viewUpdatePending = false;
+
+        if (model.hasResultDisplayChanged()) {
+            view.getResultField().setText(model.getResultDisplay());
+        }
+        if (model.hasOperationDisplayChanged()) {
+            view.getOperationField().setText(model.getOperationDisplay());
+        }
+        model.clearChanges();
+
+        CalculatorHistory history = model.getHistory();
+        if (history != null && history.publish()) {
+            view.getHistoryList().ensureIndexIsVisible(history.getSize() - 1);
+        }
+
+        if (PRINT_LATENCY && burstEvents > 0) {
+            long start = burstStart;
+            int events = burstEvents;
+
+            // Repaints are queued by setText, so this runs once they are done
+            SwingUtilities.invokeLater(() -> System.err.printf(
+                    "Key-to-paint latency: %d us (%d events)%n",
+                    (System.nanoTime() - start) / 1000, events));
+        }
+        burstEvents = 0;
     }
 
     /**
@@ -73,6 +185,21 @@ final class CalculatorController {
         view.getAddButton().addActionListener(e -> pressOperationButton('+'));
         view.getEqualButton().addActionListener(e -> pressEqualButton());
         view.getDotButton().addActionListener(e -> pressDotButton());
+        for (CalculatorOperation operation : CalculatorOperation.values()) {
+            JButton button = view.getScientificButton(operation);
+            if (button != null) {
+                button.addActionListener(
+                        e -> pressScientificButton(operation));
+            }
+        }
+        view.getMemoryClearButton().addActionListener(
+                e -> pressMemoryButton(CalculatorRecorder.MEMORY_CLEAR));
+        view.getMemoryRecallButton().addActionListener(
+                e -> pressMemoryButton(CalculatorRecorder.MEMORY_RECALL));
+        view.getMemoryAddButton().addActionListener(
+                e -> pressMemoryButton(CalculatorRecorder.MEMORY_ADD));
+        view.getMemorySubtractButton().addActionListener(
+                e -> pressMemoryButton(CalculatorRecorder.MEMORY_SUBTRACT));
     }
 
     /**
@@ -169,6 +296,32 @@ final class CalculatorController {
                 case '=':
                     controller.pressEqualButton();
                     break;
+                case 'p':
+                case 'P':
+                    controller.pressMemoryButton(
+                            CalculatorRecorder.MEMORY_ADD);
+                    break;
+                case 'n':
+                case 'N':
+                    controller.pressMemoryButton(
+                            CalculatorRecorder.MEMORY_SUBTRACT);
+                    break;
+                case 'g':
+                case 'G':
+                    controller.pressMemoryButton(
+                            CalculatorRecorder.MEMORY_RECALL);
+                    break;
+                case 'x':
+                case 'X':
+                    controller.pressMemoryButton(
+                            CalculatorRecorder.MEMORY_CLEAR);
+                    break;
+                default:
+                    CalculatorOperation operation
+                            = CalculatorOperation.forKey(e.getKeyChar());
+                    if (operation != null) {
+                        controller.pressScientificButton(operation);
+                    }
             }
         }
 
@@ -197,6 +350,40 @@ final class CalculatorController {
                 case KeyEvent.VK_ENTER:
                     controller.pressEqualButton();
                     break;
+                case KeyEvent.VK_Z:
+                    if (e.isControlDown()) {
+                        controller.pressUndoButton();
+                    }
+                    break;
+                case KeyEvent.VK_Y:
+                    if (e.isControlDown()) {
+                        controller.pressRedoButton();
+                    }
+                    break;
+                case KeyEvent.VK_L:
+                    if (e.isControlDown()) {
+                        controller.pressMemoryButton(
+                                CalculatorRecorder.MEMORY_CLEAR);
+                    }
+                    break;
+                case KeyEvent.VK_R:
+                    if (e.isControlDown()) {
+                        controller.pressMemoryButton(
+                                CalculatorRecorder.MEMORY_RECALL);
+                    }
+                    break;
+                case KeyEvent.VK_P:
+                    if (e.isControlDown()) {
+                        controller.pressMemoryButton(
+                                CalculatorRecorder.MEMORY_ADD);
+                    }
+                    break;
+                case KeyEvent.VK_Q:
+                    if (e.isControlDown()) {
+                        controller.pressMemoryButton(
+                                CalculatorRecorder.MEMORY_SUBTRACT);
+                    }
+                    break;
             }
         }
     }
@@ -209,8 +396,12 @@ final class CalculatorController {
      * pressed.
      */
     private void pressNumberButton(int n) {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordDigit(n);
+        }
         model.insertNumber(n);
-        updateView();
+        updateView(start);
     }
 
     /**
@@ -221,8 +412,12 @@ final class CalculatorController {
      * that was pressed.
      */
     private void pressOperationButton(char op) {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordOperation(op);
+        }
         model.setOperation(op);
-        updateView();
+        updateView(start);
     }
 
     /**
@@ -230,8 +425,12 @@ final class CalculatorController {
      * the calculator input.
      */
     private void pressSignButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordSign();
+        }
         model.switchSign();
-        updateView();
+        updateView(start);
     }
 
     /**
@@ -239,8 +438,12 @@ final class CalculatorController {
      * separator (in this case is a dot).
      */
     private void pressDotButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordDot();
+        }
         model.insertDot();
-        updateView();
+        updateView(start);
     }
 
     /**
@@ -248,8 +451,12 @@ final class CalculatorController {
      * calculator input.
      */
     private void pressCleanButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordClean();
+        }
         model.clean();
-        updateView();
+        updateView(start);
     }
 
     /**
@@ -257,9 +464,12 @@ final class CalculatorController {
      * calculator.
      */
     private void pressResetButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordReset();
+        }
         model.reset();
-        updateView();
-
+        updateView(start);
     }
 
     /**
@@ -267,7 +477,87 @@ final class CalculatorController {
      * result.
      */
     private void pressEqualButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordEqual();
+        }
         model.calculate();
-        updateView();
+        updateView(start);
+    }
+
+    /**
+     * Manipulates the model and updates the view in order to undo the last
+     * action.
+     */
+    private void pressUndoButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordUndo();
+        }
+        model.undo();
+        updateView(start);
+    }
+
+    /**
+     * Manipulates the model and updates the view in order to redo the last
+     * action undone.
+     */
+    private void pressRedoButton() {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordRedo();
+        }
+        model.redo();
+        updateView(start);
+    }
+
+    /**
+     * Manipulates the model and updates the view according to the memory
+     * button that was pressed.
+     *
+     * @param action the memory action (CalculatorRecorder.MEMORY_CLEAR,
+     * MEMORY_RECALL, MEMORY_ADD or MEMORY_SUBTRACT).
+     */
+    private void pressMemoryButton(int action) {
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordMemory(action);
+        }
+        switch (action) {
+            case CalculatorRecorder.MEMORY_CLEAR:
+                model.memoryClear();
+                break;
+            case CalculatorRecorder.MEMORY_RECALL:
+                model.memoryRecall();
+                break;
+            case CalculatorRecorder.MEMORY_ADD:
+                model.memoryAdd();
+                break;
+            case CalculatorRecorder.MEMORY_SUBTRACT:
+                model.memorySubtract();
+                break;
+        }
+        updateView(start);
+    }
+
+    /**
+     * Manipulates the model and updates the view according to the scientific
+     * button that was pressed: a binary operation (like the power) or a
+     * function applied to the value on the display.
+     *
+     * @param operation the operation of the button.
+     */
+    private void pressScientificButton(CalculatorOperation operation) {
+        if (operation.isBinary()) {
+            pressOperationButton(operation.getSymbol());
+            return;
+        }
+
+        long start = startHandler();
+        if (recorder != null) {
+            recorder.recordFunction(operation);
+        }
+        model.applyFunction(operation);
+        updateView(start);
     }
 }
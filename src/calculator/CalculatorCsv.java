@@ -0,0 +1,302 @@
+package calculator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Evaluates an expression on every row of a CSV file, appending the result
+ * as a new column.
+ *
+ * The expression refers to the columns of the row as $1, $2... (see
+ * CalculatorExpression), so "$2×1.21" adds the VAT to the second column. Every
+ * operation is calculated and rounded like in the calculator. Rows where the
+ * expression can't be evaluated (a column is missing or is not a number, a
+ * division by 0...) get "Error" as the result.
+ *
+ * The file is streamed one row at a time, and every row is written as soon as
+ * it has been evaluated, so the memory used doesn't depend on the size of the
+ * file. The output goes through a bounded buffer: when whoever reads it is
+ * slower, writing blocks and the file is read at the same pace.
+ *
+ * Fields can be quoted (with "" for a quote inside a quoted field), but rows
+ * can't span several lines.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorCsv {
+
+    /**
+     * Size of the input and output buffers.
+     */
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Name of the result column when the file has a header.
+     */
+    private final static String RESULT_HEADER = "result";
+
+    /**
+     * Result of the rows that can't be evaluated.
+     */
+    private final static String ERROR = "Error";
+
+    private final CalculatorExpression expression;
+    private final char delimiter;
+    private final double[] columns;
+    private final boolean[] used;
+
+    /**
+     * Where the result of every row is formatted.
+     */
+    private final char[] result = new char[CalculatorFormatter.MAX_CHARS];
+
+    private long rows;
+    private long errors;
+
+    /**
+     * Constructor for class CalculatorCsv.
+     *
+     * @param expression the expression evaluated on every row.
+     * @param delimiter the character between the fields.
+     */
+    public CalculatorCsv(CalculatorExpression expression, char delimiter) {
+        this.expression = expression;
+        this.delimiter = delimiter;
+        this.columns = new double[expression.getColumnCount()];
+        this.used = new boolean[columns.length];
+        for (int i = 0; i < used.length; i++) {
+            used[i] = expression.usesColumn(i);
+        }
+    }
+
+    /**
+     * Evaluates the expression on every row of the input and writes every
+     * row, with its result appended, to the output.
+     *
+     * @param in the CSV input.
+     * @param out where the rows with their results are written.
+     * @param header true if the first row is a header (it is copied with the
+     * name of the result column appended).
+     * @throws IOException if the input can't be read or the output written.
+     */
+    public void run(BufferedReader in, Writer out, boolean header)
+            throws IOException {
+        String line;
+
+        if (header && (line = in.readLine()) != null) {
+            out.write(line);
+            out.write(delimiter);
+            out.write(RESULT_HEADER);
+            out.write('\n');
+        }
+
+        while ((line = in.readLine()) != null) {
+            out.write(line);
+            out.write(delimiter);
+            out.write(result, 0, evaluate(line));
+            out.write('\n');
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Evaluates the expression on a row, formatting the result like on the
+     * display.
+     *
+     * @param line the row.
+     * @return the length of the result (or "Error" if it can't be evaluated)
+     * written in the result buffer.
+     */
+    private int evaluate(String line) {
+        rows++;
+
+        try {
+            parseColumns(line);
+            return CalculatorFormatter.format(expression.evaluate(columns),
+                    CalculatorPolicy.DEFAULT, result, 0);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            errors++;
+            ERROR.getChars(0, ERROR.length(), result, 0);
+            return ERROR.length();
+        }
+    }
+
+    /**
+     * Parses the fields of a row the expression refers to (the rest are
+     * skipped without being parsed).
+     *
+     * @param line the row.
+     * @throws NumberFormatException if a field is missing or is not a number.
+     */
+    private void parseColumns(String line) throws NumberFormatException {
+        int position = 0;
+
+        for (int column = 0; column < columns.length; column++) {
+            if (position > line.length()) {
+                throw new NumberFormatException("Missing column");
+            }
+
+            int end;
+            String field = null;
+
+            if (position < line.length() && line.charAt(position) == '"') {
+                StringBuilder quoted = used[column]
+                        ? new StringBuilder() : null;
+                position = readQuoted(line, position + 1, quoted);
+                if (quoted != null) {
+                    field = quoted.toString();
+                }
+                end = line.indexOf(delimiter, position);
+                if (end < 0) {
+                    end = line.length();
+                }
+            } else {
+                end = line.indexOf(delimiter, position);
+                if (end < 0) {
+                    end = line.length();
+                }
+                if (used[column]) {
+                    field = line.substring(position, end);
+                }
+            }
+
+            if (used[column]) {
+                columns[column] = Double.parseDouble(field.trim());
+            }
+            position = end + 1;
+        }
+    }
+
+    /**
+     * Reads a quoted field.
+     *
+     * @param line the row.
+     * @param position the position after the opening quote.
+     * @param field where the content of the field is appended (null to skip
+     * it).
+     * @return the position after the closing quote.
+     * @throws NumberFormatException if the quote is not closed.
+     */
+    private static int readQuoted(String line, int position,
+            StringBuilder field) throws NumberFormatException {
+        while (position < line.length()) {
+            char c = line.charAt(position++);
+
+            if (c != '"') {
+                if (field != null) {
+                    field.append(c);
+                }
+            } else if (position < line.length()
+                    && line.charAt(position) == '"') {
+                if (field != null) {
+                    field.append('"');
+                }
+                position++;
+            } else {
+                return position;
+            }
+        }
+
+        throw new NumberFormatException("Unclosed quote");
+    }
+
+    /**
+     * Returns the number of rows evaluated so far.
+     *
+     * @return the number of rows evaluated so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of rows that couldn't be evaluated so far.
+     *
+     * @return the number of rows that couldn't be evaluated so far.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Prints how to use the CSV mode and exits with status 2.
+     */
+    private static void usage() {
+        System.err.println("Usage: --csv <expression> [file] [--header] "
+                + "[--delimiter c]");
+        System.exit(2);
+    }
+
+    /**
+     * Runs the CSV mode from the command line.
+     *
+     * @param args the command line arguments (after "--csv"): the expression,
+     * then optionally the file ("-" or none for the standard input),
+     * "--header" if the first row is a header and "--delimiter c" to use
+     * another delimiter than ','.
+     * @throws IOException if the input can't be read or the output written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            usage();
+        }
+
+        CalculatorExpression expression;
+        try {
+            expression = CalculatorExpression.compile(args[0]);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        boolean header = false;
+        char delimiter = ',';
+        String file = null;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--header")) {
+                header = true;
+            } else if (args[i].equals("--delimiter")) {
+                if (i + 1 == args.length || args[i + 1].length() != 1) {
+                    System.err.println("The delimiter must be a single "
+                            + "character");
+                    usage();
+                }
+                delimiter = args[++i].charAt(0);
+            } else {
+                file = args[i];
+            }
+        }
+
+        CalculatorCsv csv = new CalculatorCsv(expression, delimiter);
+
+        InputStream input = (file == null || file.equals("-"))
+                ? System.in
+                : new FileInputStream(file);
+
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8),
+                BUFFER_SIZE)) {
+            Writer out = new BufferedWriter(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                    BUFFER_SIZE);
+
+            long start = System.nanoTime();
+            csv.run(in, out, header);
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+            System.err.printf("%d rows (%d errors) in %.3f s: %.0f rows/s%n",
+                    csv.getRows(), csv.getErrors(), seconds,
+                    csv.getRows() / seconds);
+        }
+    }
+}
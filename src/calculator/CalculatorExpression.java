@@ -0,0 +1,533 @@
+package calculator;
+
+import java.util.Arrays;
+
+/**
+ * A calculator expression, like "12.5×(3+4)÷2", compiled to a compact postfix
+ * program that can be evaluated many times.
+ *
+ * Unlike the calculator keys, expressions respect the usual precedence rules:
+ * multiplications and divisions are done before additions and subtractions,
+ * unless parentheses say otherwise. Operators are the same as in the
+ * calculator ('+', '-', '×' and '÷', with '*' and '/' accepted as synonyms,
+ * plus '^' for powers, which is done first) and every operation is rounded
+ * the same way, so "1÷3×3" gives 0.99999. The scientific functions are called
+ * by name, like "sqrt(2)" (see CalculatorOperation.forName).
+ *
+ * Expressions can also refer to the columns of a row of values as $1, $2...
+ * (like "$2×(1+$3)"), to be evaluated once per row (see CalculatorCsv), and
+ * to registers by name (like "price×(1+vat)", see CalculatorRegisters). The
+ * names are resolved when the expression is compiled (so they must have been
+ * set before), and evaluating it again after changing the registers uses
+ * their new values.
+ *
+ * Instances are not thread-safe: every thread should use its own.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorExpression {
+
+    /*
+     * Instructions of the program. Every instruction is an int with the opcode
+     * in the lowest 8 bits and its argument (if any) in the rest.
+     */
+    private final static int PUSH = 0;
+    private final static int NEGATE = 1;
+    private final static int OPERATE = 2;
+    private final static int COLUMN = 3;
+    private final static int REGISTER = 4;
+    private final static int FUNCTION = 5;
+
+    /**
+     * The operations, indexed by ordinal.
+     */
+    private final static CalculatorOperation[] OPERATIONS
+            = CalculatorOperation.values();
+
+    /**
+     * The row of columns of the expressions evaluated without columns.
+     */
+    private final static double[] NO_COLUMNS = {};
+
+    /**
+     * Maximum nesting of parentheses, function calls, signs and powers. The
+     * compiler is recursive, so deeper expressions are rejected instead of
+     * overflowing the stack of the thread.
+     */
+    private final static int MAX_NESTING = 256;
+
+    /**
+     * Compiles an expression.
+     *
+     * @param text the expression.
+     * @return the compiled expression.
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public static CalculatorExpression compile(String text)
+            throws IllegalArgumentException {
+        return compile(text, null);
+    }
+
+    /**
+     * Compiles an expression that can refer to registers.
+     *
+     * @param text the expression.
+     * @param registers the registers the expression can refer to (null if it
+     * can't refer to any).
+     * @return the compiled expression.
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public static CalculatorExpression compile(String text,
+            CalculatorRegisters registers) throws IllegalArgumentException {
+        Compiler compiler = new Compiler(text, registers);
+        compiler.compile();
+
+        return new CalculatorExpression(text, registers,
+                Arrays.copyOf(compiler.code, compiler.codeLength),
+                Arrays.copyOf(compiler.constants, compiler.constantsLength),
+                compiler.maxDepth, compiler.columnCount);
+    }
+
+    private final String text;
+    private final CalculatorRegisters registers;
+    private final int[] code;
+    private final double[] constants;
+    private final double[] stack;
+    private final int columnCount;
+
+    /**
+     * Constructor for class CalculatorExpression.
+     *
+     * @param text the source of the expression.
+     * @param registers the registers the program refers to, or null.
+     * @param code the compiled program.
+     * @param constants the constants used by the program.
+     * @param maxDepth the maximum depth of the stack during evaluation.
+     * @param columnCount the number of columns the program needs.
+     */
+    private CalculatorExpression(String text, CalculatorRegisters registers,
+            int[] code, double[] constants, int maxDepth, int columnCount) {
+        this.text = text;
+        this.registers = registers;
+        this.code = code;
+        this.constants = constants;
+        this.stack = new double[maxDepth];
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * Returns the number of columns the expression needs: the highest column
+     * it refers to (0 if it doesn't refer to any).
+     *
+     * @return the number of columns the expression needs.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Tells if the expression refers to a column.
+     *
+     * @param column the column (0 for $1).
+     * @return true if the expression refers to the column.
+     */
+    public boolean usesColumn(int column) {
+        for (int instruction : code) {
+            if ((instruction & 0xFF) == COLUMN
+                    && instruction >>> 8 == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @return the result of the expression.
+     * @throws ArithmeticException in case of division by 0, for example.
+     * @throws NumberFormatException if a result is too big to be represented.
+     * @throws IllegalArgumentException if the expression refers to columns
+     * or to a register that is not defined.
+     */
+    public double evaluate() throws ArithmeticException, NumberFormatException,
+            IllegalArgumentException {
+        return evaluate(NO_COLUMNS, CalculatorPolicy.DEFAULT);
+    }
+
+    /**
+     * Evaluates the expression, rounding every operation with a policy.
+     *
+     * @param policy the policy the operations are rounded with.
+     * @return the result of the expression.
+     * @throws ArithmeticException in case of division by 0, for example.
+     * @throws NumberFormatException if a result is too big to be represented.
+     * @throws IllegalArgumentException if the expression refers to columns
+     * or to a register that is not defined.
+     */
+    public double evaluate(CalculatorPolicy policy) throws ArithmeticException,
+            NumberFormatException, IllegalArgumentException {
+        return evaluate(NO_COLUMNS, policy);
+    }
+
+    /**
+     * Evaluates the expression on a row of columns.
+     *
+     * @param columns the values of the columns ($1 is columns[0]).
+     * @return the result of the expression.
+     * @throws ArithmeticException in case of division by 0, for example.
+     * @throws NumberFormatException if a result is too big to be represented.
+     * @throws IllegalArgumentException if the row doesn't have all the columns
+     * the expression refers to, or a register it refers to is not defined.
+     */
+    public double evaluate(double[] columns) throws ArithmeticException,
+            NumberFormatException, IllegalArgumentException {
+        return evaluate(columns, CalculatorPolicy.DEFAULT);
+    }
+
+    /**
+     * Evaluates the expression on a row of columns, rounding every operation
+     * with a policy.
+     *
+     * @param columns the values of the columns ($1 is columns[0]).
+     * @param policy the policy the operations are rounded with.
+     * @return the result of the expression.
+     * @throws ArithmeticException in case of division by 0, for example.
+     * @throws NumberFormatException if a result is too big to be represented.
+     * @throws IllegalArgumentException if the row doesn't have all the columns
+     * the expression refers to, or a register it refers to is not defined.
+     */
+    public double evaluate(double[] columns, CalculatorPolicy policy)
+            throws ArithmeticException, NumberFormatException,
+            IllegalArgumentException {
+        if (columns.length < columnCount) {
+            throw new IllegalArgumentException("Missing column $"
+                    + columnCount);
+        }
+
+        int top = -1;
+
+        for (int instruction : code) {
+            switch (instruction & 0xFF) {
+                case PUSH:
+                    stack[++top] = constants[instruction >>> 8];
+                    break;
+                case COLUMN:
+                    stack[++top] = columns[instruction >>> 8];
+                    break;
+                case REGISTER:
+                    stack[++top] = registers.get(instruction >>> 8);
+                    break;
+                case FUNCTION:
+                    stack[top] = CalculatorModel.doTheMath(
+                            OPERATIONS[instruction >>> 8], stack[top],
+                            policy);
+                    break;
+                case NEGATE:
+                    stack[top] = -stack[top];
+                    break;
+                case OPERATE:
+                    double v2 = stack[top--];
+                    stack[top] = CalculatorModel.doTheMath(
+                            (char) (instruction >>> 8), stack[top], v2, policy);
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Returns the source of the expression.
+     *
+     * @return the source of the expression.
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Recursive descent compiler for the expressions.
+     *
+     * Grammar:
+     * expression = term { ('+' | '-') term }
+     * term = factor { ('×' | '÷' | '*' | '/') factor }
+     * factor = ('-' | '+') factor | power
+     * power = primary [ '^' factor ]
+     * primary = number | column | function '(' expression ')' | register
+     *           | '(' expression ')'
+     * column = '$' digit { digit }
+     * register = (letter | '_') { letter | digit | '_' }
+     */
+    private final static class Compiler {
+
+        private final String text;
+        private final CalculatorRegisters registers;
+        private int position;
+
+        private int[] code = new int[16];
+        private int codeLength;
+        private double[] constants = new double[8];
+        private int constantsLength;
+        private int depth;
+        private int maxDepth;
+        private int columnCount;
+        private int nesting;
+
+        /**
+         * Constructor for class Compiler.
+         *
+         * @param text the expression to be compiled.
+         * @param registers the registers the expression can refer to, or
+         * null.
+         */
+        Compiler(String text, CalculatorRegisters registers) {
+            this.text = text;
+            this.registers = registers;
+        }
+
+        /**
+         * Compiles the whole expression.
+         */
+        void compile() {
+            expression();
+            skipSpaces();
+            if (position < text.length()) {
+                throw error("Unexpected '" + text.charAt(position) + "'");
+            }
+        }
+
+        /**
+         * Compiles an expression: terms separated by '+' or '-'.
+         */
+        private void expression() {
+            term();
+            for (char c = peek(); c == '+' || c == '-'; c = peek()) {
+                position++;
+                term();
+                emitOperation(c);
+            }
+        }
+
+        /**
+         * Compiles a term: factors separated by '×' or '÷'.
+         */
+        private void term() {
+            factor();
+            for (char c = peek(); c == '×' || c == '÷' || c == '*' || c == '/';
+                    c = peek()) {
+                position++;
+                factor();
+                emitOperation((c == '*') ? '×' : (c == '/') ? '÷' : c);
+            }
+        }
+
+        /**
+         * Compiles a factor: a signed power.
+         */
+        private void factor() {
+            // Every level of recursion goes through here
+            if (++nesting > MAX_NESTING) {
+                throw error("Expression too deeply nested");
+            }
+
+            char c = peek();
+
+            if (c == '-') {
+                position++;
+                factor();
+                emit(NEGATE);
+            } else if (c == '+') {
+                position++;
+                factor();
+            } else {
+                power();
+            }
+
+            nesting--;
+        }
+
+        /**
+         * Compiles a power: a primary, optionally raised to a factor (so
+         * powers are right associative: "2^3^2" is "2^(3^2)").
+         */
+        private void power() {
+            primary();
+            if (peek() == '^') {
+                position++;
+                factor();
+                emitOperation('^');
+            }
+        }
+
+        /**
+         * Compiles a primary: a number, a column, a register, a function call
+         * or an expression in parentheses.
+         */
+        private void primary() {
+            char c = peek();
+
+            if (c == '(') {
+                position++;
+                expression();
+                if (peek() != ')') {
+                    throw error("Missing ')'");
+                }
+                position++;
+            } else if (c == '.' || (c >= '0' && c <= '9')) {
+                number();
+            } else if (c == '$') {
+                position++;
+                column();
+            } else if (CalculatorRegisters.isNameStart(c)) {
+                register();
+            } else {
+                throw error((c == 0) ? "Unexpected end"
+                        : "Unexpected '" + c + "'");
+            }
+        }
+
+        /**
+         * Compiles a number as a constant to be pushed to the stack.
+         */
+        private void number() {
+            int start = position;
+            for (char c = peek(); c == '.' || (c >= '0' && c <= '9');
+                    c = (position < text.length()) ? text.charAt(position) : 0) {
+                position++;
+            }
+
+            double value;
+            try {
+                value = Double.parseDouble(text.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+
+            if (constantsLength == constants.length) {
+                constants = Arrays.copyOf(constants, constantsLength * 2);
+            }
+            constants[constantsLength] = value;
+            emit(PUSH | (constantsLength++ << 8));
+
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+
+        /**
+         * Compiles a column reference (after the '$') as an instruction that
+         * pushes the value of the column to the stack.
+         */
+        private void column() {
+            int column = 0;
+            int start = position;
+            while (position < text.length() && text.charAt(position) >= '0'
+                    && text.charAt(position) <= '9') {
+                column = column * 10 + (text.charAt(position++) - '0');
+                if (column > 0xFFFF) {
+                    throw error("Column too big");
+                }
+            }
+            if (position == start || column == 0) {
+                throw error("Invalid column");
+            }
+
+            emit(COLUMN | ((column - 1) << 8));
+            columnCount = Math.max(columnCount, column);
+
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+
+        /**
+         * Compiles a function call, or a register name as an instruction that
+         * pushes the value of the register to the stack.
+         */
+        private void register() {
+            int start = position;
+            while (position < text.length()
+                    && CalculatorRegisters.isNamePart(text.charAt(position))) {
+                position++;
+            }
+
+            String name = text.substring(start, position);
+
+            CalculatorOperation function = CalculatorOperation.forName(name);
+            if (function != null && peek() == '(') {
+                position++;
+                expression();
+                if (peek() != ')') {
+                    throw error("Missing ')'");
+                }
+                position++;
+                emit(FUNCTION | (function.ordinal() << 8));
+                return;
+            }
+
+            // Only the registers already set have a slot
+            int slot = (registers == null) ? -1 : registers.find(name);
+            if (slot < 0) {
+                position = start;
+                throw error("Unknown register \"" + name + "\"");
+            }
+
+            emit(REGISTER | (slot << 8));
+
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+
+        /**
+         * Emits a binary operation between the two values on top of the
+         * stack.
+         *
+         * @param op a char ('+', '-', '×', or '÷') indicating the operation.
+         */
+        private void emitOperation(char op) {
+            emit(OPERATE | (op << 8));
+            depth--;
+        }
+
+        /**
+         * Appends an instruction to the program.
+         *
+         * @param instruction the instruction.
+         */
+        private void emit(int instruction) {
+            if (codeLength == code.length) {
+                code = Arrays.copyOf(code, codeLength * 2);
+            }
+            code[codeLength++] = instruction;
+        }
+
+        /**
+         * Skips the spaces and returns the next character without consuming
+         * it (0 at the end of the expression).
+         *
+         * @return the next character.
+         */
+        private char peek() {
+            skipSpaces();
+            return (position < text.length()) ? text.charAt(position) : 0;
+        }
+
+        /**
+         * Skips the spaces at the current position.
+         */
+        private void skipSpaces() {
+            while (position < text.length()
+                    && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        /**
+         * Builds the exception for a syntax error at the current position.
+         *
+         * @param message the description of the error.
+         * @return the exception to be thrown.
+         */
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position "
+                    + position + " in \"" + text + "\"");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package calculator;
+
+import java.math.BigDecimal;
+
+/**
+ * Formats the results for the display: in plain notation (no exponent unless
+ * the number doesn't fit the display) and without trailing zeros, so 5.0 is
+ * shown as "5" and 1.0E12 as "1000000000000".
+ *
+ * The text is written straight into a char buffer given by the caller (the
+ * display buffer of the model, for example), so formatting a result doesn't
+ * allocate anything. Results have at most as many decimal places as the
+ * scale of their policy, so a result is almost always an integer number of
+ * units of that scale and its digits are just the digits of a long. Values
+ * that aren't (or are too big for that) are formatted with Double.toString
+ * and converted to plain notation, which allocates.
+ *
+ * Both ways give the shortest decimal that is parsed back to the same double,
+ * so the text doesn't depend on the policy used: the policy only tells which
+ * values take the fast path.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorFormatter {
+
+    /**
+     * Length of the longest text that can be written for a double, sign
+     * included (for example "-0.00000012345678901234567").
+     */
+    final static int MAX_CHARS = 26;
+
+    /**
+     * Limit of the units of the scale that are formatted as a long. Decimals
+     * of up to 15 digits are always the shortest decimal of their double.
+     */
+    private final static double MAX_FAST_UNITS = 1e15;
+
+    /**
+     * Values from this one on are shown with an exponent.
+     */
+    private final static double MAX_PLAIN = 1e21;
+
+    /**
+     * Values below this one (but 0) are shown with an exponent.
+     */
+    private final static double MIN_PLAIN = 1e-7;
+
+    /**
+     * Constructor for class CalculatorFormatter (it is not instantiable).
+     */
+    private CalculatorFormatter() {
+    }
+
+    /**
+     * Writes a value for the display.
+     *
+     * @param value the value.
+     * @param policy the policy the value was rounded with.
+     * @param buffer where the text is written (it must have room for MAX_CHARS
+     * chars from the offset).
+     * @param offset where the text starts in the buffer.
+     * @return the position after the text in the buffer.
+     */
+    static int format(double value, CalculatorPolicy policy, char[] buffer,
+            int offset) {
+        int position = offset;
+
+        if (Double.doubleToRawLongBits(value) < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+
+        double factor = policy.getScaleFactor();
+        if (factor != 0.0) {
+            double units = Math.rint(value * factor);
+
+            if (units < MAX_FAST_UNITS && units / factor == value) {
+                return writeUnits((long) units, policy.getResultScale(),
+                        buffer, position);
+            }
+        }
+
+        return writeText(value, buffer, position);
+    }
+
+    /**
+     * Returns the text of a value for the display.
+     *
+     * @param value the value.
+     * @param policy the policy the value was rounded with.
+     * @return the text of the value.
+     */
+    static String toString(double value, CalculatorPolicy policy) {
+        char[] buffer = new char[MAX_CHARS];
+        return new String(buffer, 0, format(value, policy, buffer, 0));
+    }
+
+    /**
+     * Writes a number of units of a scale (like 1234 units of 0.01 for
+     * 12.34), without trailing zeros.
+     *
+     * @param units the number of units.
+     * @param scale the number of decimal places of the units.
+     * @param buffer where the text is written.
+     * @param position where the text starts in the buffer.
+     * @return the position after the text in the buffer.
+     */
+    private static int writeUnits(long units, int scale, char[] buffer,
+            int position) {
+        while (scale > 0 && units % 10 == 0) {
+            units /= 10;
+            scale--;
+        }
+
+        int digits = 1;
+        for (long n = units / 10; n != 0; n /= 10) {
+            digits++;
+        }
+
+        // "0.00" before the digits when there is no integer part
+        if (scale >= digits) {
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            for (int i = digits; i < scale; i++) {
+                buffer[position++] = '0';
+            }
+        }
+
+        int end = position + digits + ((scale > 0 && scale < digits) ? 1 : 0);
+        int dot = (scale > 0 && scale < digits) ? end - scale - 1 : -1;
+
+        for (int i = end - 1; i >= position; i--) {
+            if (i == dot) {
+                buffer[i] = '.';
+            } else {
+                buffer[i] = (char) ('0' + units % 10);
+                units /= 10;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Writes a value with Double.toString, in plain notation and without
+     * trailing zeros if it fits the display.
+     *
+     * @param value the value (not negative).
+     * @param buffer where the text is written.
+     * @param position where the text starts in the buffer.
+     * @return the position after the text in the buffer.
+     */
+    private static int writeText(double value, char[] buffer, int position) {
+        String text = Double.toString(value);
+
+        if (text.indexOf('E') >= 0 && value >= MIN_PLAIN
+                && value < MAX_PLAIN) {
+            text = new BigDecimal(text).toPlainString();
+        }
+
+        int length = text.length();
+        if (text.indexOf('.') >= 0 && text.indexOf('E') < 0) {
+            while (text.charAt(length - 1) == '0') {
+                length--;
+            }
+            if (text.charAt(length - 1) == '.') {
+                length--;
+            }
+        }
+
+        text.getChars(0, length, buffer, position);
+        return position + length;
+    }
+}
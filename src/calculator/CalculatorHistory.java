@@ -0,0 +1,277 @@
+package calculator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import javax.swing.AbstractListModel;
+
+/**
+ * The history of the calculations completed by a model, shown as a list in
+ * the view.
+ *
+ * Sessions can last for days, so the history is a ring buffer: it keeps only
+ * the most recent calculations and forgets the oldest ones. The calculations
+ * are kept as plain numbers (growing the buffers only when needed) and their
+ * text is built only when the list asks for a row, so only the visible rows
+ * are ever formatted.
+ *
+ * Recording a calculation (add) never notifies the list: the changes are
+ * accumulated and notified by publish(), called once per view update, so
+ * recording is cheap no matter how long the history is.
+ *
+ * Instances are not thread-safe: they must be used from the event dispatch
+ * thread once they are shown.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorHistory extends AbstractListModel<String> {
+
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Default maximum number of calculations kept.
+     */
+    final static int DEFAULT_CAPACITY = 100_000;
+
+    /**
+     * Initial size of the buffers.
+     */
+    private final static int INITIAL_SIZE = 64;
+
+    private final int capacity;
+
+    /*
+     * The calculations: the operation, and the first operand, second operand
+     * and result (three values per calculation). In arbitrary-precision mode
+     * the values are kept as BigDecimals instead (allocated on first use).
+     */
+    private char[] operations;
+    private double[] values;
+    private BigDecimal[] decimals;
+
+    /**
+     * Position of the oldest calculation in the buffers.
+     */
+    private int head;
+    private int size;
+
+    /**
+     * Where the values of a row are formatted.
+     */
+    private final char[] buffer = new char[CalculatorFormatter.MAX_CHARS];
+
+    /*
+     * Changes not notified to the listeners yet.
+     */
+    private int added;
+    private int removed;
+
+    /**
+     * Constructor for class CalculatorHistory.
+     *
+     * @param capacity maximum number of calculations kept.
+     */
+    public CalculatorHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.operations = new char[Math.min(INITIAL_SIZE, capacity)];
+        this.values = new double[3 * operations.length];
+    }
+
+    /**
+     * Records a calculation.
+     *
+     * @param op the operation.
+     * @param v1 the first operand.
+     * @param v2 the second operand.
+     * @param result the result.
+     */
+    void add(char op, double v1, double v2, double result) {
+        int i = nextSlot();
+        operations[i] = op;
+        values[3 * i] = v1;
+        values[3 * i + 1] = v2;
+        values[3 * i + 2] = result;
+        if (decimals != null) {
+            decimals[3 * i] = null;
+        }
+    }
+
+    /**
+     * Records a calculation in arbitrary-precision mode.
+     *
+     * @param op the operation.
+     * @param v1 the first operand.
+     * @param v2 the second operand.
+     * @param result the result.
+     */
+    void add(char op, BigDecimal v1, BigDecimal v2, BigDecimal result) {
+        if (decimals == null) {
+            decimals = new BigDecimal[values.length];
+        }
+
+        int i = nextSlot();
+        operations[i] = op;
+        decimals[3 * i] = v1;
+        decimals[3 * i + 1] = v2;
+        decimals[3 * i + 2] = result;
+    }
+
+    /**
+     * Returns the position of the buffers for a new calculation, growing the
+     * buffers or forgetting the oldest calculation if needed.
+     *
+     * @return the position of the buffers for the new calculation.
+     */
+    private int nextSlot() {
+        if (size == capacity) {
+            // The new calculation takes the place of the oldest one
+            int slot = (head + size) % operations.length;
+            head = (head + 1) % operations.length;
+            removed++;
+            added++;
+            return slot;
+        }
+
+        if (size == operations.length) {
+            grow();
+        }
+
+        added++;
+        return (head + size++) % operations.length;
+    }
+
+    /**
+     * Doubles the size of the buffers (up to the capacity), moving the
+     * oldest calculation to the start.
+     */
+    private void grow() {
+        int length = (int) Math.min(2L * operations.length, capacity);
+
+        char[] newOperations = new char[length];
+        double[] newValues = new double[3 * length];
+        BigDecimal[] newDecimals = (decimals == null)
+                ? null : new BigDecimal[3 * length];
+
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) % operations.length;
+            newOperations[i] = operations[from];
+            System.arraycopy(values, 3 * from, newValues, 3 * i, 3);
+            if (decimals != null) {
+                System.arraycopy(decimals, 3 * from, newDecimals, 3 * i, 3);
+            }
+        }
+
+        operations = newOperations;
+        values = newValues;
+        decimals = newDecimals;
+        head = 0;
+    }
+
+    /**
+     * Notifies the listeners of the calculations recorded since the last
+     * call.
+     *
+     * @return true if there was something to notify.
+     */
+    boolean publish() {
+        if (added == 0) {
+            return false;
+        }
+
+        if (removed > 0) {
+            // Every row has moved up
+            fireContentsChanged(this, 0, size - 1);
+        } else {
+            fireIntervalAdded(this, size - added, size - 1);
+        }
+
+        added = 0;
+        removed = 0;
+        return true;
+    }
+
+    /**
+     * Forgets every calculation.
+     */
+    public void clear() {
+        int oldSize = size;
+
+        head = 0;
+        size = 0;
+        added = 0;
+        removed = 0;
+        if (decimals != null) {
+            Arrays.fill(decimals, null);
+        }
+
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    /**
+     * Returns the maximum number of calculations kept.
+     *
+     * @return the maximum number of calculations kept.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of calculations kept.
+     *
+     * @return the number of calculations kept.
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the text of a calculation, like "12 + 3.5 = 15.5".
+     *
+     * @param index the index of the calculation (0 is the oldest).
+     * @return the text of the calculation.
+     */
+    @Override
+    public String getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+
+        int i = (head + index) % operations.length;
+        StringBuilder sb = new StringBuilder(64);
+
+        if (decimals != null && decimals[3 * i] != null) {
+            sb.append(decimals[3 * i].toPlainString())
+                    .append(' ').append(operations[i]).append(' ')
+                    .append(decimals[3 * i + 1].toPlainString())
+                    .append(" = ")
+                    .append(decimals[3 * i + 2].toPlainString());
+        } else {
+            appendValue(sb, values[3 * i]);
+            sb.append(' ').append(operations[i]).append(' ');
+            appendValue(sb, values[3 * i + 1]);
+            sb.append(" = ");
+            appendValue(sb, values[3 * i + 2]);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends a value formatted like on the display.
+     *
+     * @param sb where the value is appended.
+     * @param value the value.
+     */
+    private void appendValue(StringBuilder sb, double value) {
+        int length = CalculatorFormatter.format(value,
+                CalculatorPolicy.DEFAULT, buffer, 0);
+        sb.append(buffer, 0, length);
+    }
+}
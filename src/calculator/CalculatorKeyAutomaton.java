@@ -0,0 +1,834 @@
+package calculator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Replays keystroke tapes with a table-driven automaton that reproduces the
+ * display of CalculatorModel (in double mode) exactly, much faster.
+ *
+ * The input rules of the model (leading zeros, a single dot, "-0", the first
+ * digit of a number, the limit of digits...) only depend on a few facts about
+ * the display: its length, whether it is zero, has a dot or a '-' in the
+ * exponent, its sign, whether a new number is expected, an operation is
+ * pending or the calculator is in error mode. Those facts are packed in an
+ * abstract state, and every (state, key) pair is compiled once, when the
+ * class is loaded, to the next state and the action to be done on the
+ * display. Replaying a key is then a table lookup and a small switch.
+ *
+ * The value of the typed numbers is kept as an integer mantissa and a number
+ * of decimals, which gives exactly the same double as parsing the display,
+ * and the results of the operations are only formatted (straight into the
+ * display buffer, see CalculatorFormatter) when they have to be shown, so
+ * replaying a session doesn't create any String (a result that is edited,
+ * after switching its sign, is formatted into the text first). The memory
+ * register (M+, M-, MR and MC) is just another double, and recalling it shows
+ * it like a result.
+ *
+ * The tapes are read as raw bytes (the keys are all ASCII), one session per
+ * line, like in the batch mode. The model is still the reference:
+ * CalculatorKeyAutomatonCheck checks both against each other on every
+ * sequence of keys up to a length.
+ *
+ * Instances are not thread-safe: every thread should use its own.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorKeyAutomaton {
+
+    /*
+     * Classes of keys: keys of the same class have the same transitions.
+     */
+    private final static int IGNORED = 0;
+    private final static int ZERO = 1;
+    private final static int DIGIT = 2;
+    private final static int DOT = 3;
+    private final static int SIGN = 4;
+    private final static int OPERATION = 5;
+    private final static int EQUAL = 6;
+    private final static int RESET = 7;
+    private final static int FUNCTION = 8;
+    private final static int MEMORY = 9;
+    private final static int MEMORY_RECALL = 10;
+    private final static int MEMORY_CLEAR = 11;
+    private final static int KEY_CLASSES = 12;
+
+    /*
+     * Actions done on the display by the transitions.
+     */
+    private final static int NONE = 0;
+    private final static int REPLACE_DIGIT = 1;
+    private final static int REPLACE_ZERO_DOT = 2;
+    private final static int REPLACE_MINUS_ZERO_DOT = 3;
+    private final static int REPLACE_MINUS_ZERO = 4;
+    private final static int SET_DIGIT = 5;
+    private final static int APPEND_DIGIT = 6;
+    private final static int APPEND_DOT = 7;
+    private final static int OPERATE = 8;
+    private final static int CALCULATE = 9;
+    private final static int APPLY_FUNCTION = 10;
+    private final static int RESET_ALL = 11;
+    private final static int MATERIALIZE = 12;
+    private final static int ACCUMULATE = 13;
+    private final static int RECALL = 14;
+    private final static int CLEAR_MEMORY = 15;
+
+    /**
+     * Bits of a transition used by the action (the rest is the next state).
+     */
+    private final static int ACTION_BITS = 4;
+
+    /*
+     * Bits of the abstract states. RESULT means that the display shows a
+     * result whose text hasn't been created yet, IS_ZERO that it shows just
+     * "0" (or "-0"). The length of the display (without the sign) is in the
+     * bits from LENGTH_SHIFT.
+     */
+    private final static int ERROR = 1;
+    private final static int FIRST_DIGIT = 1 << 1;
+    private final static int PENDING = 1 << 2;
+    private final static int NEGATIVE = 1 << 3;
+    private final static int HAS_DOT = 1 << 4;
+    private final static int MINUS_IN_EXPONENT = 1 << 5;
+    private final static int RESULT = 1 << 6;
+    private final static int IS_ZERO = 1 << 7;
+    private final static int LENGTH_SHIFT = 8;
+    private final static int MAX_LENGTH = 31;
+    private final static int STATE_KEYS = (MAX_LENGTH + 1) << LENGTH_SHIFT;
+
+    /**
+     * Maximum number of digits that the user can introduce (the automaton
+     * always follows the default policy).
+     */
+    private final static int MAX_INPUT_DIGITS
+            = CalculatorPolicy.DEFAULT.getInputDigits();
+
+    /**
+     * Exact powers of ten, to get the value of the typed numbers.
+     */
+    private final static double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4,
+        1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    /*
+     * The key classes, operations and functions of every byte.
+     */
+    private final static byte[] KEY_CLASS = new byte[256];
+    private final static char[] KEY_OPERATION = new char[256];
+    private final static CalculatorOperation[] KEY_FUNCTION
+            = new CalculatorOperation[256];
+
+    /*
+     * The compiled automaton: the dense index of every abstract state, the
+     * abstract state of every index, the transitions (next index and action)
+     * of every index and key class, and the index with the opposite sign.
+     */
+    private final static int[] INDEX = new int[STATE_KEYS];
+    private final static int[] STATES;
+    private final static int[] TRANSITIONS;
+    private final static int[] NEGATED;
+
+    /**
+     * Index of the state after a reset.
+     */
+    private final static int INITIAL;
+
+    /**
+     * Index of the error state.
+     */
+    private final static int ERROR_STATE;
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            KEY_CLASS[b] = (byte) classify((char) b);
+        }
+
+        Arrays.fill(INDEX, -1);
+        Deque<Integer> pending = new ArrayDeque<>();
+        int[] states = new int[64];
+        int count = 0;
+
+        int initial = FIRST_DIGIT | IS_ZERO | 1 << LENGTH_SHIFT;
+        for (int seed : new int[]{initial, ERROR}) {
+            INDEX[seed] = count;
+            states[count++] = seed;
+            pending.add(seed);
+        }
+
+        // Every state reachable from the initial one, breadth first
+        while (!pending.isEmpty()) {
+            int state = pending.poll();
+
+            for (int next : successors(state)) {
+                if (INDEX[next] < 0) {
+                    if (count == states.length) {
+                        states = Arrays.copyOf(states, count * 2);
+                    }
+                    INDEX[next] = count;
+                    states[count++] = next;
+                    pending.add(next);
+                }
+            }
+        }
+
+        STATES = Arrays.copyOf(states, count);
+        TRANSITIONS = new int[count * KEY_CLASSES];
+        NEGATED = new int[count];
+        for (int i = 0; i < count; i++) {
+            for (int keyClass = 0; keyClass < KEY_CLASSES; keyClass++) {
+                long transition = transition(STATES[i], keyClass);
+                TRANSITIONS[i * KEY_CLASSES + keyClass]
+                        = INDEX[(int) (transition >>> 32)] << ACTION_BITS
+                        | (int) transition;
+            }
+            int negated = STATES[i] ^ NEGATIVE;
+            NEGATED[i] = (INDEX[negated] < 0) ? i : INDEX[negated];
+        }
+
+        INITIAL = INDEX[initial];
+        ERROR_STATE = INDEX[ERROR];
+    }
+
+    /**
+     * Returns the class of a key, and fills the tables of operations and
+     * functions.
+     *
+     * @param key the character typed.
+     * @return the class of the key.
+     */
+    private static int classify(char key) {
+        switch (key) {
+            case '0':
+                return ZERO;
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                return DIGIT;
+            case '.':
+            case ',':
+                return DOT;
+            case 's':
+            case 'S':
+            case 'm':
+            case 'M':
+                return SIGN;
+            case 'c':
+            case 'C':
+            case 'r':
+            case 'R':
+                return RESET;
+            case '=':
+                return EQUAL;
+            case '+':
+            case '-':
+                KEY_OPERATION[key] = key;
+                return OPERATION;
+            case '*':
+                KEY_OPERATION[key] = '×';
+                return OPERATION;
+            case '/':
+                KEY_OPERATION[key] = '÷';
+                return OPERATION;
+            case 'p':
+            case 'P':
+                KEY_OPERATION[key] = '+';
+                return MEMORY;
+            case 'n':
+            case 'N':
+                KEY_OPERATION[key] = '-';
+                return MEMORY;
+            case 'g':
+            case 'G':
+                return MEMORY_RECALL;
+            case 'x':
+            case 'X':
+                return MEMORY_CLEAR;
+            default:
+                CalculatorOperation operation = CalculatorOperation.forKey(key);
+                if (operation == null) {
+                    return IGNORED;
+                }
+                if (operation.isBinary()) {
+                    KEY_OPERATION[key] = operation.getSymbol();
+                    return OPERATION;
+                }
+                KEY_FUNCTION[key] = operation;
+                return FUNCTION;
+        }
+    }
+
+    /**
+     * Returns the states that can follow a state.
+     *
+     * @param state the abstract state.
+     * @return the abstract states that can follow it.
+     */
+    private static int[] successors(int state) {
+        int[] next = new int[KEY_CLASSES * 2 + 1 + 3 * MAX_LENGTH];
+        int n = 0;
+
+        for (int keyClass = 0; keyClass < KEY_CLASSES; keyClass++) {
+            int successor = (int) (transition(state, keyClass) >>> 32);
+            next[n++] = successor;
+            // The results of the operations can be negative too
+            next[n++] = ((successor & RESULT) != 0)
+                    ? successor ^ NEGATIVE : successor;
+        }
+
+        // The text of a result, once created to be edited, can have any
+        // length, with or without a dot
+        if ((state & (RESULT | FIRST_DIGIT)) == RESULT) {
+            next[n++] = (state & (NEGATIVE | PENDING)) | IS_ZERO
+                    | 1 << LENGTH_SHIFT;
+            for (int length = 1; length <= MAX_LENGTH; length++) {
+                int text = (state & (NEGATIVE | PENDING))
+                        | length << LENGTH_SHIFT;
+                if (length < MAX_LENGTH) {
+                    // Room for the dot
+                    next[n++] = text;
+                }
+                next[n++] = text | HAS_DOT;
+                next[n++] = text | HAS_DOT | MINUS_IN_EXPONENT;
+            }
+        }
+
+        return Arrays.copyOf(next, n);
+    }
+
+    /**
+     * Compiles the transition of an abstract state with a class of keys,
+     * following the rules of CalculatorModel.
+     *
+     * @param state the abstract state.
+     * @param keyClass the class of the key.
+     * @return the next abstract state in the upper 32 bits and the action in
+     * the lower ones.
+     */
+    private static long transition(int state, int keyClass) {
+        if ((state & ERROR) != 0) {
+            // Like in the model, MC works in error mode too
+            if (keyClass == MEMORY_CLEAR) {
+                return pack(state, CLEAR_MEMORY);
+            }
+            return (keyClass == RESET) ? pack(initialState(), RESET_ALL)
+                    : pack(state, NONE);
+        }
+
+        boolean firstDigit = (state & FIRST_DIGIT) != 0;
+        boolean negative = (state & NEGATIVE) != 0;
+        int length = state >>> LENGTH_SHIFT;
+        int pending = state & PENDING;
+
+        switch (keyClass) {
+            case ZERO:
+            case DIGIT:
+                int zero = (keyClass == ZERO) ? IS_ZERO : 0;
+                if (firstDigit) {
+                    return pack(pending | zero | 1 << LENGTH_SHIFT,
+                            REPLACE_DIGIT);
+                }
+                if ((state & RESULT) != 0) {
+                    return pack(state, MATERIALIZE);
+                }
+                if (length + (negative ? 1 : 0) >= MAX_INPUT_DIGITS) {
+                    return pack(state, NONE);
+                }
+                if ((state & IS_ZERO) != 0) {
+                    return pack((state & ~IS_ZERO) | zero, SET_DIGIT);
+                }
+                return pack((state & ~(0xFF << LENGTH_SHIFT))
+                        | (length + 1) << LENGTH_SHIFT, APPEND_DIGIT);
+            case DOT:
+                if (firstDigit) {
+                    return pack(pending | HAS_DOT | 2 << LENGTH_SHIFT,
+                            REPLACE_ZERO_DOT);
+                }
+                if (negative) {
+                    return pack(pending | NEGATIVE | HAS_DOT
+                            | 2 << LENGTH_SHIFT, REPLACE_MINUS_ZERO_DOT);
+                }
+                if ((state & RESULT) != 0) {
+                    return pack(state, MATERIALIZE);
+                }
+                if ((state & MINUS_IN_EXPONENT) != 0) {
+                    return pack(pending | NEGATIVE | HAS_DOT
+                            | 2 << LENGTH_SHIFT, REPLACE_MINUS_ZERO_DOT);
+                }
+                if ((state & HAS_DOT) != 0) {
+                    return pack(state, NONE);
+                }
+                return pack((state & ~(0xFF << LENGTH_SHIFT) & ~IS_ZERO)
+                        | HAS_DOT | (length + 1) << LENGTH_SHIFT, APPEND_DOT);
+            case SIGN:
+                if (firstDigit && pending != 0) {
+                    return pack(pending | NEGATIVE | IS_ZERO
+                            | 1 << LENGTH_SHIFT, REPLACE_MINUS_ZERO);
+                }
+                return pack((state ^ NEGATIVE) & ~FIRST_DIGIT, NONE);
+            case OPERATION:
+                if (pending != 0) {
+                    return pack(RESULT | FIRST_DIGIT | PENDING, OPERATE);
+                }
+                return pack(state | FIRST_DIGIT | PENDING, OPERATE);
+            case EQUAL:
+                if (pending != 0) {
+                    return pack(RESULT | FIRST_DIGIT, CALCULATE);
+                }
+                return pack(state, NONE);
+            case RESET:
+                return pack(initialState(), RESET_ALL);
+            case FUNCTION:
+                return pack(RESULT | FIRST_DIGIT | pending, APPLY_FUNCTION);
+            case MEMORY:
+                return pack(state | FIRST_DIGIT, ACCUMULATE);
+            case MEMORY_RECALL:
+                return pack(RESULT | FIRST_DIGIT | pending, RECALL);
+            case MEMORY_CLEAR:
+                return pack(state, CLEAR_MEMORY);
+            default:
+                return pack(state, NONE);
+        }
+    }
+
+    /**
+     * Returns the abstract state after a reset.
+     *
+     * @return the abstract state after a reset.
+     */
+    private static int initialState() {
+        return FIRST_DIGIT | IS_ZERO | 1 << LENGTH_SHIFT;
+    }
+
+    /**
+     * Packs a transition.
+     *
+     * @param state the next abstract state.
+     * @param action the action.
+     * @return the transition.
+     */
+    private static long pack(int state, int action) {
+        return (long) state << 32 | action;
+    }
+
+    /**
+     * Returns the number of states of the automaton.
+     *
+     * @return the number of states of the automaton.
+     */
+    static int getStateCount() {
+        return STATES.length;
+    }
+
+    private int state;
+
+    /**
+     * The display without the sign (only up to date when the state is not a
+     * result).
+     */
+    private final char[] text = new char[MAX_LENGTH + 1];
+
+    /*
+     * The value of the display: a typed number (mantissa and decimals) when
+     * exact is true, or the magnitude of a result when the state is a result.
+     * Otherwise the text has to be parsed.
+     */
+    private long mantissa;
+    private int decimals;
+    private boolean exact;
+    private double result;
+
+    private double tempValue;
+    private char operation;
+    private double memory;
+
+    private long sessions;
+    private long keys;
+
+    /**
+     * Constructor for class CalculatorKeyAutomaton.
+     */
+    public CalculatorKeyAutomaton() {
+        reset();
+    }
+
+    /**
+     * Resets the calculator and clears the memory register, for a new
+     * session.
+     */
+    public void reset() {
+        clear();
+        memory = 0.0;
+    }
+
+    /**
+     * Resets the calculator, like the AC key (the memory register is kept).
+     */
+    private void clear() {
+        state = INITIAL;
+        text[0] = '0';
+        mantissa = 0;
+        decimals = 0;
+        exact = true;
+        tempValue = 0.0;
+        operation = 0;
+    }
+
+    /**
+     * Feeds a key to the calculator.
+     *
+     * @param b the byte of the key (unknown keys are ignored).
+     * @return true if the key was understood, false if it was ignored.
+     */
+    public boolean key(int b) {
+        int keyClass = KEY_CLASS[b & 0xFF];
+        if (keyClass == IGNORED) {
+            return false;
+        }
+
+        int transition = TRANSITIONS[state * KEY_CLASSES + keyClass];
+        int action = transition & ((1 << ACTION_BITS) - 1);
+        int previous = state;
+        state = transition >>> ACTION_BITS;
+
+        switch (action) {
+            case REPLACE_DIGIT:
+                text[0] = (char) b;
+                mantissa = b - '0';
+                decimals = 0;
+                exact = true;
+                break;
+            case REPLACE_ZERO_DOT:
+            case REPLACE_MINUS_ZERO_DOT:
+                text[0] = '0';
+                text[1] = '.';
+                mantissa = 0;
+                decimals = 0;
+                exact = true;
+                break;
+            case REPLACE_MINUS_ZERO:
+                text[0] = '0';
+                mantissa = 0;
+                decimals = 0;
+                exact = true;
+                break;
+            case SET_DIGIT:
+                text[0] = (char) b;
+                mantissa = b - '0';
+                break;
+            case APPEND_DIGIT:
+                text[length(previous)] = (char) b;
+                mantissa = mantissa * 10 + (b - '0');
+                if ((STATES[previous] & HAS_DOT) != 0) {
+                    decimals++;
+                }
+                break;
+            case APPEND_DOT:
+                text[length(previous)] = '.';
+                break;
+            case OPERATE:
+                if ((STATES[previous] & PENDING) != 0) {
+                    calculate(previous);
+                }
+                if (state != ERROR_STATE) {
+                    tempValue = value(state);
+                    operation = KEY_OPERATION[b & 0xFF];
+                }
+                break;
+            case CALCULATE:
+                calculate(previous);
+                break;
+            case APPLY_FUNCTION:
+                applyFunction(previous, KEY_FUNCTION[b & 0xFF]);
+                break;
+            case RESET_ALL:
+                clear();
+                break;
+            case MATERIALIZE:
+                state = previous;
+                materialize();
+                return key(b);
+            case ACCUMULATE:
+                accumulate(previous, KEY_OPERATION[b & 0xFF]);
+                break;
+            case RECALL:
+                showResult(memory);
+                break;
+            case CLEAR_MEMORY:
+                memory = 0.0;
+                break;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the length of the display (without the sign) of a state.
+     *
+     * @param s the index of the state.
+     * @return the length of the display.
+     */
+    private static int length(int s) {
+        return STATES[s] >>> LENGTH_SHIFT;
+    }
+
+    /**
+     * Returns the value on the display.
+     *
+     * @param s the index of the current state (it can differ from the state
+     * field in the middle of a transition).
+     * @return the value on the display.
+     */
+    private double value(int s) {
+        int abstractState = STATES[s];
+        boolean negative = (abstractState & NEGATIVE) != 0;
+
+        if ((abstractState & RESULT) != 0) {
+            return negative ? -result : result;
+        }
+        if (exact) {
+            double magnitude = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -magnitude : magnitude;
+        }
+
+        String number = new String(text, 0, abstractState >>> LENGTH_SHIFT);
+        return Double.parseDouble(negative ? "-" + number : number);
+    }
+
+    /**
+     * Calculates the pending operation and shows its result.
+     *
+     * @param s the index of the state before the key.
+     */
+    private void calculate(int s) {
+        try {
+            showResult(CalculatorModel.doTheMath(operation, tempValue,
+                    value(s)));
+            operation = 0;
+        } catch (NumberFormatException | ArithmeticException e) {
+            enterErrorMode();
+        }
+    }
+
+    /**
+     * Applies a function to the value on the display and shows its result.
+     *
+     * @param s the index of the state before the key.
+     * @param function the function.
+     */
+    private void applyFunction(int s, CalculatorOperation function) {
+        try {
+            double value = value(s);
+            if (function == CalculatorOperation.PERCENT
+                    && (operation == '+' || operation == '-')) {
+                showResult(CalculatorPolicy.DEFAULT.round(
+                        tempValue * value / 100.0));
+            } else {
+                showResult(CalculatorModel.doTheMath(function, value));
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            enterErrorMode();
+        }
+    }
+
+    /**
+     * Adds the value on the display to the memory register or subtracts it
+     * (M+ and M-).
+     *
+     * @param s the index of the state before the key.
+     * @param op '+' or '-'.
+     */
+    private void accumulate(int s, char op) {
+        try {
+            memory = CalculatorModel.doTheMath(op, memory, value(s));
+        } catch (NumberFormatException | ArithmeticException e) {
+            enterErrorMode();
+        }
+    }
+
+    /**
+     * Shows a result (the state is already the one of a positive result).
+     *
+     * @param value the result.
+     */
+    private void showResult(double value) {
+        if (Double.doubleToRawLongBits(value) < 0) {
+            state = NEGATED[state];
+            result = -value;
+        } else {
+            result = value;
+        }
+    }
+
+    /**
+     * Enters error mode.
+     */
+    private void enterErrorMode() {
+        state = ERROR_STATE;
+        operation = 0;
+    }
+
+    /**
+     * Creates the text of the result on the display, to be edited (the one
+     * shown, like the model), and moves to the state of that text.
+     */
+    private void materialize() {
+        int length = formatResult();
+        int abstractState = (STATES[state] & (NEGATIVE | PENDING))
+                | length << LENGTH_SHIFT;
+
+        for (int i = 0; i < length; i++) {
+            if (text[i] == '.') {
+                abstractState |= HAS_DOT;
+            } else if (text[i] == '-') {
+                abstractState |= MINUS_IN_EXPONENT;
+            }
+        }
+        if (length == 1 && text[0] == '0') {
+            abstractState |= IS_ZERO;
+        }
+
+        state = INDEX[abstractState];
+        exact = false;
+    }
+
+    /**
+     * Writes the text of the result (its magnitude) into the text of the
+     * display, like the model does.
+     *
+     * @return the length of the text.
+     */
+    private int formatResult() {
+        return CalculatorFormatter.format(result, CalculatorPolicy.DEFAULT,
+                text, 0);
+    }
+
+    /**
+     * Returns the content of the result display, like
+     * CalculatorModel.getResultDisplay().
+     *
+     * @return the content of the result display.
+     */
+    public String getResultDisplay() {
+        int abstractState = STATES[state];
+
+        if ((abstractState & ERROR) != 0) {
+            return "Error";
+        }
+
+        int length = ((abstractState & RESULT) != 0) ? formatResult()
+                : abstractState >>> LENGTH_SHIFT;
+        String number = new String(text, 0, length);
+        return ((abstractState & NEGATIVE) != 0) ? "-" + number : number;
+    }
+
+    /**
+     * Writes the content of the result display, without creating a String.
+     *
+     * @param out where the display is written.
+     * @throws IOException if it can't be written.
+     */
+    private void writeResultDisplay(Writer out) throws IOException {
+        int abstractState = STATES[state];
+
+        if ((abstractState & ERROR) != 0) {
+            out.write("Error");
+            return;
+        }
+
+        if ((abstractState & NEGATIVE) != 0) {
+            out.write('-');
+        }
+        int length = ((abstractState & RESULT) != 0) ? formatResult()
+                : abstractState >>> LENGTH_SHIFT;
+        out.write(text, 0, length);
+    }
+
+    /**
+     * Replays every session of a tape (one per line, ending with '\n', '\r'
+     * or "\r\n") and writes one result per line to the output.
+     *
+     * @param in the tape, as raw bytes.
+     * @param out where the results are written.
+     * @throws IOException if the tape can't be read or the results written.
+     */
+    public void replay(InputStream in, Writer out) throws IOException {
+        InputStream input = (in instanceof BufferedInputStream) ? in
+                : new BufferedInputStream(in, 1 << 16);
+        byte[] buffer = new byte[1 << 16];
+        boolean inSession = false;
+        boolean afterReturn = false;
+
+        reset();
+
+        int n;
+        while ((n = input.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                byte b = buffer[i];
+
+                if (b == '\n' || b == '\r') {
+                    // The '\n' of a "\r\n" doesn't end another line
+                    if (b == '\r' || !afterReturn) {
+                        endSession(out);
+                    }
+                    inSession = false;
+                    afterReturn = (b == '\r');
+                } else {
+                    afterReturn = false;
+                    if (key(b)) {
+                        keys++;
+                    }
+                    inSession = true;
+                }
+            }
+        }
+
+        // The last line may not end with a line break
+        if (inSession) {
+            endSession(out);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the result of the current session and resets the calculator for
+     * the next one.
+     *
+     * @param out where the result is written.
+     * @throws IOException if the result can't be written.
+     */
+    private void endSession(Writer out) throws IOException {
+        writeResultDisplay(out);
+        out.write('\n');
+        sessions++;
+        reset();
+    }
+
+    /**
+     * Returns the number of sessions replayed so far.
+     *
+     * @return the number of sessions replayed so far.
+     */
+    public long getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the number of keys understood so far.
+     *
+     * @return the number of keys understood so far.
+     */
+    public long getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,287 @@
+package calculator;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the calculator: operations calculated per operator, functions
+ * applied, errors per cause and latency of the controller handlers.
+ *
+ * The metrics are disabled by default. Setting the system property
+ * "calculator.metrics" enables them and publishes them as the MBean
+ * "calculator:type=Metrics". When disabled, get() returns null and the
+ * instrumented code only has to check a constant, so the cost is negligible.
+ *
+ * The counters can be updated from any thread.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorMetrics implements CalculatorMetricsMBean {
+
+    /**
+     * Name of the published MBean.
+     */
+    final static String OBJECT_NAME = "calculator:type=Metrics";
+
+    /**
+     * Number of buckets of the latency histogram (one per power of two).
+     */
+    private final static int HISTOGRAM_BUCKETS = 64;
+
+    /**
+     * The metrics of the application, or null if they are disabled.
+     */
+    private final static CalculatorMetrics INSTANCE
+            = Boolean.getBoolean("calculator.metrics") ? register() : null;
+
+    /**
+     * Returns the metrics of the application.
+     *
+     * @return the metrics, or null if they are disabled.
+     */
+    static CalculatorMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the metrics and publishes them in the platform MBean server.
+     *
+     * Starting the MBean server takes a while, so the metrics are published
+     * in the background: they count from the start, but the application
+     * doesn't wait for them to be visible.
+     *
+     * @return the metrics.
+     */
+    private static CalculatorMetrics register() {
+        CalculatorMetrics metrics = new CalculatorMetrics();
+
+        Thread publisher = new Thread(() -> publish(metrics),
+                "calculator-metrics");
+        publisher.setDaemon(true);
+        publisher.start();
+
+        return metrics;
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server.
+     *
+     * @param metrics the metrics.
+     */
+    private static void publish(CalculatorMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Calculator metrics not published: " + e);
+        }
+    }
+
+    private final LongAdder additions = new LongAdder();
+    private final LongAdder subtractions = new LongAdder();
+    private final LongAdder multiplications = new LongAdder();
+    private final LongAdder divisions = new LongAdder();
+    private final LongAdder powers = new LongAdder();
+    private final LongAdder functions = new LongAdder();
+
+    private final LongAdder divisionByZeroErrors = new LongAdder();
+    private final LongAdder numberFormatErrors = new LongAdder();
+    private final LongAdder otherErrors = new LongAdder();
+
+    private final AtomicLongArray latencies
+            = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final LongAccumulator maxLatency
+            = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructor for class CalculatorMetrics.
+     */
+    CalculatorMetrics() {
+    }
+
+    /**
+     * Counts a calculated operation.
+     *
+     * @param op a char ('+', '-', '×', '÷' or '^') indicating the operation.
+     */
+    void operationCalculated(char op) {
+        switch (op) {
+            case '+':
+                additions.increment();
+                break;
+            case '-':
+                subtractions.increment();
+                break;
+            case '×':
+                multiplications.increment();
+                break;
+            case '÷':
+                divisions.increment();
+                break;
+            case '^':
+                powers.increment();
+                break;
+        }
+    }
+
+    /**
+     * Counts an applied function (square root, logarithm...).
+     */
+    void functionApplied() {
+        functions.increment();
+    }
+
+    /**
+     * Counts an entry in error mode.
+     *
+     * @param cause the exception that made the calculator enter error mode.
+     */
+    void errorModeEntered(Exception cause) {
+        if (cause instanceof NumberFormatException) {
+            numberFormatErrors.increment();
+        } else if (cause instanceof ArithmeticException
+                && "Division by 0".equals(cause.getMessage())) {
+            divisionByZeroErrors.increment();
+        } else {
+            otherErrors.increment();
+        }
+    }
+
+    /**
+     * Records the latency of a controller handler.
+     *
+     * @param nanos the time the handler took, in nanoseconds.
+     */
+    void handlerRun(long nanos) {
+        int bucket = (nanos <= 0) ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+        latencies.incrementAndGet(bucket);
+        maxLatency.accumulate(nanos);
+    }
+
+    @Override
+    public long getAdditions() {
+        return additions.sum();
+    }
+
+    @Override
+    public long getSubtractions() {
+        return subtractions.sum();
+    }
+
+    @Override
+    public long getMultiplications() {
+        return multiplications.sum();
+    }
+
+    @Override
+    public long getDivisions() {
+        return divisions.sum();
+    }
+
+    @Override
+    public long getPowers() {
+        return powers.sum();
+    }
+
+    @Override
+    public long getFunctions() {
+        return functions.sum();
+    }
+
+    @Override
+    public long getDivisionByZeroErrors() {
+        return divisionByZeroErrors.sum();
+    }
+
+    @Override
+    public long getNumberFormatErrors() {
+        return numberFormatErrors.sum();
+    }
+
+    @Override
+    public long getOtherErrors() {
+        return otherErrors.sum();
+    }
+
+    @Override
+    public long getHandlerCount() {
+        long count = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            count += latencies.get(i);
+        }
+        return count;
+    }
+
+    @Override
+    public long[] getHandlerLatencyHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = latencies.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public double getHandlerLatencyP50Micros() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public double getHandlerLatencyP99Micros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public double getHandlerLatencyMaxMicros() {
+        return maxLatency.get() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        additions.reset();
+        subtractions.reset();
+        multiplications.reset();
+        divisions.reset();
+        powers.reset();
+        functions.reset();
+        divisionByZeroErrors.reset();
+        numberFormatErrors.reset();
+        otherErrors.reset();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            latencies.set(i, 0);
+        }
+        maxLatency.reset();
+    }
+
+    /**
+     * Returns a percentile of the handler latency from the histogram.
+     *
+     * @param fraction the percentile, between 0 and 1.
+     * @return the upper bound of the bucket holding the percentile, in
+     * microseconds (0 if there is no data).
+     */
+    double percentile(double fraction) {
+        long[] histogram = getHandlerLatencyHistogram();
+        long count = 0;
+        for (long c : histogram) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return Math.pow(2, i + 1) / 1000.0;
+            }
+        }
+        return getHandlerLatencyMaxMicros();
+    }
+}
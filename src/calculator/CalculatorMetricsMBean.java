@@ -0,0 +1,122 @@
+package calculator;
+
+/**
+ * Management interface of the calculator metrics (see CalculatorMetrics).
+ *
+ * It has to be public so the JMX agent can introspect it.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+public interface CalculatorMetricsMBean {
+
+    /**
+     * Returns the number of additions calculated.
+     *
+     * @return the number of additions calculated.
+     */
+    long getAdditions();
+
+    /**
+     * Returns the number of subtractions calculated.
+     *
+     * @return the number of subtractions calculated.
+     */
+    long getSubtractions();
+
+    /**
+     * Returns the number of multiplications calculated.
+     *
+     * @return the number of multiplications calculated.
+     */
+    long getMultiplications();
+
+    /**
+     * Returns the number of divisions calculated.
+     *
+     * @return the number of divisions calculated.
+     */
+    long getDivisions();
+
+    /**
+     * Returns the number of powers calculated.
+     *
+     * @return the number of powers calculated.
+     */
+    long getPowers();
+
+    /**
+     * Returns the number of functions (square root, logarithm...) applied.
+     *
+     * @return the number of functions applied.
+     */
+    long getFunctions();
+
+    /**
+     * Returns the number of times the calculator entered error mode because
+     * of a division by 0.
+     *
+     * @return the number of divisions by 0.
+     */
+    long getDivisionByZeroErrors();
+
+    /**
+     * Returns the number of times the calculator entered error mode because
+     * a value couldn't be represented or parsed (NumberFormatException).
+     *
+     * @return the number of number format errors.
+     */
+    long getNumberFormatErrors();
+
+    /**
+     * Returns the number of times the calculator entered error mode for any
+     * other reason.
+     *
+     * @return the number of other errors.
+     */
+    long getOtherErrors();
+
+    /**
+     * Returns the number of controller handlers run on the event dispatch
+     * thread.
+     *
+     * @return the number of handlers run.
+     */
+    long getHandlerCount();
+
+    /**
+     * Returns the histogram of the latencies of the controller handlers.
+     * Element i counts the handlers that took between 2^i and 2^(i+1)
+     * nanoseconds.
+     *
+     * @return the histogram of the latencies of the handlers.
+     */
+    long[] getHandlerLatencyHistogram();
+
+    /**
+     * Returns the median latency of the controller handlers (upper bound of
+     * its histogram bucket).
+     *
+     * @return the median latency in microseconds.
+     */
+    double getHandlerLatencyP50Micros();
+
+    /**
+     * Returns the 99th percentile of the latency of the controller handlers
+     * (upper bound of its histogram bucket).
+     *
+     * @return the 99th percentile of the latency in microseconds.
+     */
+    double getHandlerLatencyP99Micros();
+
+    /**
+     * Returns the maximum latency of the controller handlers.
+     *
+     * @return the maximum latency in microseconds.
+     */
+    double getHandlerLatencyMaxMicros();
+
+    /**
+     * Sets all the counters back to 0.
+     */
+    void reset();
+}
@@ -1,96 +1,633 @@
 package calculator;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.stream.IntStream;
 
 /**
  * The Calculator Model.
  *
+ * By default the values are doubles. In arbitrary-precision mode (see
+ * setMathContext) the stored value and the results are BigDecimals computed
+ * with the given MathContext instead, so long values don't lose precision.
+ *
+ * Optionally (see setHistoryDepth) the model keeps a bounded history of its
+ * states, so the user can undo and redo the last actions.
+ *
+ * How many digits can be introduced and how the results are rounded is set
+ * by a numeric policy (see CalculatorPolicy and setPolicy), 12 digits and 5
+ * decimal places rounded HALF_UP by default.
+ *
+ * The model also has a memory (see CalculatorRegisters): the classic memory
+ * register and named registers, which expressions can refer to. The registers
+ * keep doubles (even in arbitrary-precision mode) and are not part of the
+ * undo history.
+ *
+ * Results are shown in plain notation without trailing zeros ("5", not
+ * "5.0"; see CalculatorFormatter), and typing after switching the sign of a
+ * result edits that text. They used to be shown with Double.toString, and
+ * setLegacyDisplay() shows them the old way, so the keys give exactly the
+ * same outputs as older versions ("-5.0" and a 1 are "-5.01", not "-51").
+ *
  * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
  */
 final class CalculatorModel {
 
     /**
-     * Maximum number of digits that the user can introduce.
+     * The metrics of the application, or null if they are disabled.
+     */
+    private final static CalculatorMetrics METRICS = CalculatorMetrics.get();
+
+    /**
+     * Largest exponent BigDecimal.pow can raise a number to.
+     */
+    private final static BigDecimal MAX_EXACT_EXPONENT
+            = BigDecimal.valueOf(999_999_999);
+
+    /**
+     * Maximum number of digits of the integer part of an arbitrary-precision
+     * result (results must be shown in plain notation, so they can't be much
+     * bigger than doubles, which overflow at about 10^308).
+     */
+    private final static int MAX_DECIMAL_DIGITS = 308;
+
+    /**
+     * Number of actions that can be undone in the interactive calculator.
      */
-    private final static int MAX_INPUT_DIGITS = 12;
+    final static int DEFAULT_HISTORY_DEPTH = 100;
 
     /**
-     * Maximum number of decimal places the results will be rounded to.
+     * Number of operands every thread works on in the parallel bulk
+     * operations (arrays shorter than two of them are not split).
      */
-    private final static int MAX_RESULT_DECIMALS = 5;
+    private final static int BULK_CHUNK_SIZE = 1 << 15;
 
     /**
-     * Performs the specified math operation.
+     * Performs the specified math operation, rounding the result with the
+     * default policy.
      *
-     * @param op a char ('+', '-', '×', or '÷') indicating the math operation to
-     * be calculated.
+     * @param op a char ('+', '-', '×', '÷' or '^') indicating the math
+     * operation to be calculated.
+     * @param v1 the first operand.
+     * @param v2 the second operand.
+     * @return the result of the mathematical operation.
+     * @throws ArithmeticException in case of division by 0, for example.
+     */
+    static double doTheMath(char op, double v1, double v2)
+            throws ArithmeticException {
+        return doTheMath(op, v1, v2, CalculatorPolicy.DEFAULT);
+    }
+
+    /**
+     * Performs the specified math operation, rounding the result with a
+     * policy.
+     *
+     * @param op a char ('+', '-', '×', '÷' or '^') indicating the math
+     * operation to be calculated.
      * @param v1 the first operand.
      * @param v2 the second operand.
+     * @param policy the policy the result is rounded with.
      * @return the result of the mathematical operation.
      * @throws ArithmeticException in case of division by 0, for example.
      */
-    private static double doTheMath(char op, double v1, double v2)
+    static double doTheMath(char op, double v1, double v2,
+            CalculatorPolicy policy) throws ArithmeticException {
+        CalculatorOperation operation = CalculatorOperation.forSymbol(op);
+        double result = (operation == null) ? 0.0 : operation.apply(v1, v2);
+
+        return policy.round(result);
+    }
+
+    /**
+     * Applies the specified function, rounding the result with the default
+     * policy.
+     *
+     * @param function the function (an operation that is not binary).
+     * @param value the operand.
+     * @return the result of the function, rounded like the operations.
+     * @throws ArithmeticException if the operand is outside the domain of the
+     * function.
+     */
+    static double doTheMath(CalculatorOperation function, double value)
+            throws ArithmeticException {
+        return doTheMath(function, value, CalculatorPolicy.DEFAULT);
+    }
+
+    /**
+     * Applies the specified function, rounding the result with a policy.
+     *
+     * @param function the function (an operation that is not binary).
+     * @param value the operand.
+     * @param policy the policy the result is rounded with.
+     * @return the result of the function, rounded like the operations.
+     * @throws ArithmeticException if the operand is outside the domain of the
+     * function.
+     */
+    static double doTheMath(CalculatorOperation function, double value,
+            CalculatorPolicy policy) throws ArithmeticException {
+        return policy.round(function.apply(value, 0.0));
+    }
+
+    /**
+     * Performs the specified math operation on every pair of operands of two
+     * arrays: out[i] = v1[i] op v2[i], rounded like doTheMath(char, double,
+     * double).
+     *
+     * The operation is chosen once and then applied in tight loops without
+     * branches, which the JIT can unroll and vectorize. The results are
+     * calculated in a separate array and only copied to the output when all
+     * of them are valid, so an error leaves the output untouched. The output
+     * can be one of the operand arrays.
+     *
+     * @param op a char ('+', '-', '×', '÷' or '^') indicating the math
+     * operation to be calculated.
+     * @param v1 the first operands.
+     * @param v2 the second operands.
+     * @param out where the results are written.
+     * @param parallel true to split the work among the threads of the common
+     * fork/join pool.
+     * @throws ArithmeticException in case of division by 0, for example.
+     * @throws NumberFormatException if a result overflows (it is not finite).
+     * @throws IllegalArgumentException if the operation is not one of them or
+     * the arrays have different lengths.
+     */
+    static void doTheMath(char op, double[] v1, double[] v2, double[] out,
+            boolean parallel) throws ArithmeticException,
+            IllegalArgumentException {
+        if (v1.length != v2.length || v1.length != out.length) {
+            throw new IllegalArgumentException("Arrays of different lengths");
+        }
+
+        if (bulkOperation(op) == CalculatorOperation.DIVIDE) {
+            for (double divisor : v2) {
+                if (divisor == 0.0) {
+                    throw new ArithmeticException("Division by 0");
+                }
+            }
+        }
+
+        bulk(op, v1, v2, 0.0, out, parallel);
+    }
+
+    /**
+     * Performs the specified math operation on every operand of an array and
+     * the same second operand: out[i] = v1[i] op v2, rounded like
+     * doTheMath(char, double, double). Useful to apply a rate to many values.
+     *
+     * @param op a char ('+', '-', '×', '÷' or '^') indicating the math
+     * operation to be calculated.
+     * @param v1 the first operands.
+     * @param v2 the second operand.
+     * @param out where the results are written (can be v1).
+     * @param parallel true to split the work among the threads of the common
+     * fork/join pool.
+     * @throws ArithmeticException in case of division by 0, for example.
+     * @throws NumberFormatException if a result overflows (it is not finite).
+     * @throws IllegalArgumentException if the operation is not one of them or
+     * the arrays have different lengths.
+     */
+    static void doTheMath(char op, double[] v1, double v2, double[] out,
+            boolean parallel) throws ArithmeticException,
+            IllegalArgumentException {
+        if (v1.length != out.length) {
+            throw new IllegalArgumentException("Arrays of different lengths");
+        }
+
+        if (bulkOperation(op) == CalculatorOperation.DIVIDE && v2 == 0.0) {
+            throw new ArithmeticException("Division by 0");
+        }
+
+        bulk(op, v1, null, v2, out, parallel);
+    }
+
+    /**
+     * Returns the binary operation of a bulk operation.
+     *
+     * @param op the symbol of the operation.
+     * @return the operation.
+     * @throws IllegalArgumentException if there is no binary operation with
+     * that symbol.
+     */
+    private static CalculatorOperation bulkOperation(char op)
+            throws IllegalArgumentException {
+        CalculatorOperation operation = CalculatorOperation.forSymbol(op);
+        if (operation == null) {
+            throw new IllegalArgumentException("Unknown operation '" + op
+                    + "'");
+        }
+        return operation;
+    }
+
+    /**
+     * Runs a bulk operation, in chunks among several threads if requested,
+     * and copies the results to the output once all of them are valid.
+     *
+     * @param op the operation.
+     * @param v1 the first operands.
+     * @param v2 the second operands, or null to use the constant.
+     * @param constant the second operand when v2 is null.
+     * @param out where the results are written.
+     * @param parallel true to split the work among several threads.
+     * @throws ArithmeticException if a power is not a number.
+     * @throws NumberFormatException if a result is not finite.
+     */
+    private static void bulk(char op, double[] v1, double[] v2,
+            double constant, double[] out, boolean parallel)
+            throws ArithmeticException, NumberFormatException {
+        int length = out.length;
+        double[] results = new double[length];
+
+        if (!parallel || length < 2 * BULK_CHUNK_SIZE) {
+            bulkRange(op, v1, v2, constant, results, 0, length);
+        } else {
+            int chunks = (length + BULK_CHUNK_SIZE - 1) / BULK_CHUNK_SIZE;
+            IntStream.range(0, chunks).parallel().forEach(c -> bulkRange(op,
+                    v1, v2, constant, results, c * BULK_CHUNK_SIZE,
+                    Math.min(length, (c + 1) * BULK_CHUNK_SIZE)));
+        }
+
+        System.arraycopy(results, 0, out, 0, length);
+    }
+
+    /**
+     * Runs a bulk operation on a range of the arrays: first the operation
+     * alone and then the rounding, so the loops of the arithmetic operations
+     * have no branches at all.
+     *
+     * @param op the operation.
+     * @param v1 the first operands.
+     * @param v2 the second operands, or null to use the constant.
+     * @param constant the second operand when v2 is null.
+     * @param out where the results are written.
+     * @param from the first index of the range (inclusive).
+     * @param to the last index of the range (exclusive).
+     * @throws ArithmeticException if a power is not a number.
+     * @throws NumberFormatException if a result is not finite.
+     */
+    private static void bulkRange(char op, double[] v1, double[] v2,
+            double constant, double[] out, int from, int to)
+            throws ArithmeticException, NumberFormatException {
+        if (v2 == null) {
+            switch (op) {
+                case '+':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] + constant;
+                    }
+                    break;
+                case '-':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] - constant;
+                    }
+                    break;
+                case '×':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] * constant;
+                    }
+                    break;
+                case '÷':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] / constant;
+                    }
+                    break;
+                case '^':
+                    for (int i = from; i < to; i++) {
+                        out[i] = CalculatorOperation.POWER.apply(v1[i],
+                                constant);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(op);
+            }
+        } else {
+            switch (op) {
+                case '+':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] + v2[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] - v2[i];
+                    }
+                    break;
+                case '×':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] * v2[i];
+                    }
+                    break;
+                case '÷':
+                    for (int i = from; i < to; i++) {
+                        out[i] = v1[i] / v2[i];
+                    }
+                    break;
+                case '^':
+                    for (int i = from; i < to; i++) {
+                        out[i] = CalculatorOperation.POWER.apply(v1[i],
+                                v2[i]);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(op);
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            out[i] = CalculatorPolicy.DEFAULT.round(out[i]);
+        }
+    }
+
+    /**
+     * Performs the specified math operation in arbitrary precision.
+     *
+     * @param op a char ('+', '-', '×', or '÷') indicating the math operation to
+     * be calculated.
+     * @param v1 the first operand.
+     * @param v2 the second operand.
+     * @param mc the precision and rounding of the operation.
+     * @param policy the policy the result is rounded with.
+     * @return the result of the mathematical operation, rounded to the scale
+     * of the policy at most.
+     * @throws ArithmeticException in case of division by 0, for example, or
+     * if the integer part of the result has more than MAX_DECIMAL_DIGITS
+     * digits.
+     */
+    static BigDecimal doTheMath(char op, BigDecimal v1, BigDecimal v2,
+            MathContext mc, CalculatorPolicy policy)
             throws ArithmeticException {
-        double result = 0.0;
+        BigDecimal result = BigDecimal.ZERO;
 
         switch (op) {
             case '+':
-                result = v1 + v2;
+                result = v1.add(v2, mc);
                 break;
             case '-':
-                result = v1 - v2;
+                result = v1.subtract(v2, mc);
                 break;
             case '×':
-                result = v1 * v2;
+                result = v1.multiply(v2, mc);
                 break;
             case '÷':
-                if (v2 == 0.0) {
+                if (v2.signum() == 0) {
                     throw new ArithmeticException("Division by 0");
                 }
-                result = v1 / v2;
+                result = v1.divide(v2, mc);
+                break;
+            case '^':
+                result = power(v1, v2, mc);
                 break;
         }
 
-        return round(result, MAX_RESULT_DECIMALS);
+        // Like the double results, the ones too big to be shown overflow
+        if (result.precision() - result.scale() > MAX_DECIMAL_DIGITS) {
+            throw new ArithmeticException("Overflow");
+        }
+
+        return policy.round(result);
     }
 
     /**
-     * Rounds a double to the specified number of decimal places.
+     * Returns the text shown on the display for an arbitrary-precision
+     * result: without trailing zeros or exponent.
      *
-     * @param value number to be rounded.
-     * @param places number of decimal places.
-     * @return rounded double.
+     * @param value the result.
+     * @return the text to be displayed.
      */
-    private static double round(double value, int places) {
-        if (places < 0) {
-            throw new IllegalArgumentException();
+    private static String toDisplay(BigDecimal value) {
+        if (value.signum() == 0) {
+            return "0";
         }
+        return value.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Raises a number to a power in arbitrary precision. Integer exponents are
+     * calculated exactly (up to the precision) when the result has at most
+     * MAX_DECIMAL_DIGITS digits before or after the point, the rest with
+     * doubles (which overflow, or give a result too small to be shown).
+     *
+     * @param base the base.
+     * @param exponent the exponent.
+     * @param mc the precision and rounding of the operation.
+     * @return the base raised to the exponent.
+     * @throws ArithmeticException if the result is not a real number.
+     */
+    private static BigDecimal power(BigDecimal base, BigDecimal exponent,
+            MathContext mc) throws ArithmeticException {
+        BigDecimal integral = exponent.stripTrailingZeros();
+        if (integral.scale() <= 0
+                && integral.abs().compareTo(MAX_EXACT_EXPONENT) <= 0) {
+            int n = integral.intValue();
+            if (n < 0 && base.signum() == 0) {
+                throw new ArithmeticException("Division by 0");
+            }
 
-        BigDecimal bd = new BigDecimal(Double.toString(value));
-        bd = bd.setScale(places, RoundingMode.HALF_UP);
-        return bd.doubleValue();
+            // The bases can't be bigger than the results, so they fit in a
+            // double
+            double digits = n * Math.log10(Math.abs(base.doubleValue()));
+            if (base.signum() == 0
+                    || Math.abs(digits) <= MAX_DECIMAL_DIGITS) {
+                return base.pow(n, mc);
+            }
+        }
+
+        double result = CalculatorOperation.POWER.apply(base.doubleValue(),
+                exponent.doubleValue());
+        if (Double.isInfinite(result)) {
+            throw new ArithmeticException("Overflow");
+        }
+        return new BigDecimal(result, mc);
     }
 
+    /**
+     * The result display, as a fixed-capacity buffer of characters. Position 0
+     * always holds a '-' and the text starts there when the value is negative
+     * or at position 1 otherwise, so switching the sign doesn't move anything.
+     */
+    private char[] display = new char[displayCapacity(
+            CalculatorPolicy.DEFAULT)];
+    private int displayEnd;
+    private boolean negative;
+    private int dotPosition;
+    private boolean minusInExponent;
+
+    /**
+     * True to show the results with Double.toString, like older versions.
+     */
+    private boolean legacyDisplay;
+
+    /**
+     * The content of the display as a String, created only when it is read
+     * (null when it has to be created again).
+     */
     private String resultDisplay;
+
     private String operationDisplay;
+
+    /**
+     * Tell if the displays have changed since the last call to
+     * clearChanges(), so the view only has to update what has changed.
+     */
+    private boolean resultChanged;
+    private boolean operationChanged;
+
     private double tempValue;
+    private BigDecimal tempDecimal;
+    private MathContext mathContext;
     private boolean inErrorMode;
     private boolean firstDigit;
 
+    private CalculatorPolicy policy = CalculatorPolicy.DEFAULT;
+    private CalculatorResultCache resultCache;
+    private CalculatorHistory history;
+    private final CalculatorRegisters registers = new CalculatorRegisters();
+
+    /**
+     * States to go back to with undo() (most recent first, the first one
+     * being the current state as of the last action) and to go forward to
+     * with redo(). Both are empty when historyDepth is 0.
+     */
+    private final Deque<State> undoHistory = new ArrayDeque<>();
+    private final Deque<State> redoHistory = new ArrayDeque<>();
+    private int historyDepth;
+
     /**
      * Constructor for class Model.
      */
     public CalculatorModel() {
+        display[0] = '-';
         reset();
     }
 
+    /**
+     * Selects the arbitrary-precision mode (or the default double mode) and
+     * resets the calculator.
+     *
+     * @param mc the precision and rounding of the operations, or null to
+     * use doubles.
+     */
+    public void setMathContext(MathContext mc) {
+        mathContext = mc;
+        reset();
+    }
+
+    /**
+     * Returns the precision and rounding of the operations.
+     *
+     * @return the precision and rounding of the operations, or null if the
+     * calculator uses doubles.
+     */
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Sets the numeric policy: how many digits can be introduced and how the
+     * results are rounded. Numbers already on the display are not changed.
+     *
+     * @param p the policy.
+     */
+    public void setPolicy(CalculatorPolicy p) {
+        policy = Objects.requireNonNull(p);
+
+        int capacity = displayCapacity(p);
+        if (capacity > display.length) {
+            display = Arrays.copyOf(display, capacity);
+        }
+    }
+
+    /**
+     * Returns the numeric policy.
+     *
+     * @return the numeric policy.
+     */
+    public CalculatorPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the capacity of the display buffer for a policy: the longest
+     * input (all the digits plus the dot and the sign) or the longest result,
+     * whichever is longer.
+     *
+     * @param p the policy.
+     * @return the capacity of the display buffer.
+     */
+    private static int displayCapacity(CalculatorPolicy p) {
+        return Math.max(p.getInputDigits() + 2, CalculatorFormatter.MAX_CHARS);
+    }
+
+    /**
+     * Shows the results like older versions did, with Double.toString ("5.0"
+     * or "1.0E12" instead of "5" or "1000000000000"). Digits typed after
+     * switching the sign of a result edit the text shown, so only the legacy
+     * display gives the same numbers as older versions then ("-5.0" and a 1
+     * are "-5.01"; "-5" and a 1 are "-51").
+     *
+     * @param legacy true to show the results like older versions.
+     */
+    public void setLegacyDisplay(boolean legacy) {
+        legacyDisplay = legacy;
+    }
+
+    /**
+     * Sets how many actions can be undone (0, the default, disables the
+     * history). Changing it forgets the history.
+     *
+     * @param depth the maximum number of actions that can be undone.
+     */
+    public void setHistoryDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        historyDepth = depth;
+        undoHistory.clear();
+        redoHistory.clear();
+    }
+
+    /**
+     * Sets the cache used to calculate the operations (null to calculate every
+     * operation).
+     *
+     * @param cache the cache of results, or null.
+     */
+    public void setResultCache(CalculatorResultCache cache) {
+        resultCache = cache;
+    }
+
+    /**
+     * Sets the history where the completed calculations are recorded (null
+     * to record none).
+     *
+     * @param h the history, or null.
+     */
+    public void setHistory(CalculatorHistory h) {
+        history = h;
+    }
+
+    /**
+     * Returns the history where the completed calculations are recorded.
+     *
+     * @return the history, or null if none is recorded.
+     */
+    public CalculatorHistory getHistory() {
+        return history;
+    }
+
     /**
      * Returns the current display content.
      *
      * @return the current display content.
      */
     public String getResultDisplay() {
+        if (resultDisplay == null) {
+            int start = negative ? 0 : 1;
+            resultDisplay = new String(display, start, displayEnd - start);
+        }
         return resultDisplay;
     }
 
@@ -103,6 +640,34 @@ final class CalculatorModel {
         return operationDisplay;
     }
 
+    /**
+     * Tells if the result display has changed since the last call to
+     * clearChanges().
+     *
+     * @return true if the result display has changed.
+     */
+    public boolean hasResultDisplayChanged() {
+        return resultChanged;
+    }
+
+    /**
+     * Tells if the operation display has changed since the last call to
+     * clearChanges().
+     *
+     * @return true if the operation display has changed.
+     */
+    public boolean hasOperationDisplayChanged() {
+        return operationChanged;
+    }
+
+    /**
+     * Marks both displays as unchanged (once the view shows their content).
+     */
+    public void clearChanges() {
+        resultChanged = false;
+        operationChanged = false;
+    }
+
     /**
      * Inserts a new digit in the display.
      *
@@ -112,33 +677,35 @@ final class CalculatorModel {
      * @param n the number to be introduced.
      */
     public void insertNumber(int n) {
+        saveState();
+
         if (inErrorMode) {
             return;
         }
 
+        char digit = (char) ('0' + n);
+
         // Control if we have to replace the display
         if (firstDigit) {
-            resultDisplay = String.valueOf(n);
+            replaceDisplay(false, digit, false);
             firstDigit = false;
             return;
         }
 
         // Control we don't go over the limit of the display
-        if (resultDisplay.length() >= MAX_INPUT_DIGITS) {
+        if (displayEnd - (negative ? 0 : 1) >= policy.getInputDigits()) {
             return;
         }
 
-        // Control we don't have 0s on the left
-        if (resultDisplay.equals("0")) {
-            resultDisplay = String.valueOf(n);
-            return;
-        }
-        if (resultDisplay.equals("-0")) {
-            resultDisplay = "-" + n;
+        // Control we don't have 0s on the left (keeping the sign of "-0")
+        if (displayEnd == 2 && display[1] == '0') {
+            display[1] = digit;
+            displayChanged();
             return;
         }
 
-        resultDisplay += n;
+        display[displayEnd++] = digit;
+        displayChanged();
     }
 
     /**
@@ -149,56 +716,60 @@ final class CalculatorModel {
      * If it is the firstDigit it will add a 0 to the left.
      */
     public void insertDot() {
+        saveState();
+
         if (inErrorMode) {
             return;
         }
 
         // Control that if it is the firstDigit it will add a 0 to the left
         if (firstDigit) {
-            resultDisplay = "0.";
+            replaceDisplay(false, '0', true);
             firstDigit = false;
             return;
         }
-        if (resultDisplay.contains("-")) {
-            resultDisplay = "-0.";
+
+        if (negative || minusInExponent) {
+            replaceDisplay(true, '0', true);
             return;
         }
 
         // Control we don't have more than one dot at the same time
-        if (resultDisplay.contains(".")) {
+        if (dotPosition >= 0) {
             return;
         }
 
-        resultDisplay += ".";
+        dotPosition = displayEnd;
+        display[displayEnd++] = '.';
+        displayChanged();
     }
 
     /**
      * Switches the sign of the value on display.
      *
      * To avoid changing the way the number is presented (number of decimal
-     * places for example) this operation is made directly to the String without
-     * converting it to double.
+     * places for example) this operation is made directly to the display
+     * without converting it to double.
      *
      * When expecting the user to introduce a new number pressing the switch
      * sign button will result in the display content being replaced by a '-'.
      */
     public void switchSign() {
+        saveState();
+
         if (inErrorMode) {
             return;
         }
 
         // Control if we are expecting the user to introduce a new number
         if (firstDigit && !operationDisplay.isEmpty()) {
-            resultDisplay = "-0";
+            replaceDisplay(true, '0', false);
             firstDigit = false;
             return;
         }
 
-        if (resultDisplay.charAt(0) == '-') {
-            resultDisplay = resultDisplay.substring(1);
-        } else {
-            resultDisplay = "-" + resultDisplay;
-        }
+        negative = !negative;
+        displayChanged();
 
         if (firstDigit) {
             firstDigit = false;
@@ -213,6 +784,8 @@ final class CalculatorModel {
      * be set.
      */
     public void setOperation(char op) {
+        saveState();
+
         calculate();
 
         if (inErrorMode) {
@@ -222,14 +795,18 @@ final class CalculatorModel {
         try {
             // Stores the current value on display so we don't loose it when the
             // user introduces a new number
-            tempValue = Double.valueOf(resultDisplay);
+            if (mathContext == null) {
+                tempValue = Double.parseDouble(getResultDisplay());
+            } else {
+                tempDecimal = new BigDecimal(getResultDisplay());
+            }
 
-            operationDisplay = String.valueOf(op);
+            setOperationDisplay(String.valueOf(op));
 
             // After this operation we expect the user to introduce a new number
             firstDigit = true;
         } catch (Exception e) {
-            enterErrorMode();
+            enterErrorMode(e);
         }
     }
 
@@ -238,6 +815,8 @@ final class CalculatorModel {
      * (stored on tempValue) and the current one.
      */
     public void calculate() {
+        saveState();
+
         if (inErrorMode) {
             return;
         }
@@ -246,19 +825,287 @@ final class CalculatorModel {
             return;
         }
 
+        if (mathContext != null) {
+            calculateDecimal();
+            return;
+        }
+
         try {
             char op = operationDisplay.charAt(0);
-            Double valueIndisplay = Double.valueOf(resultDisplay);
+            double valueInDisplay = Double.parseDouble(getResultDisplay());
+
+            double result = (resultCache == null)
+                    ? doTheMath(op, tempValue, valueInDisplay, policy)
+                    : resultCache.doTheMath(op, tempValue, valueInDisplay,
+                            policy);
 
-            Double result = doTheMath(op, tempValue, valueIndisplay);
+            if (METRICS != null) {
+                METRICS.operationCalculated(op);
+            }
+            if (history != null) {
+                history.add(op, tempValue, valueInDisplay, result);
+            }
 
-            resultDisplay = result.toString();
-            operationDisplay = "";
+            setDisplay(result);
+            setOperationDisplay("");
 
             // After this operation we expect the user to introduce a new number
             firstDigit = true;
         } catch (NumberFormatException | ArithmeticException e) {
-            enterErrorMode();
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Proceeds with the selected operation in arbitrary-precision mode.
+     */
+    private void calculateDecimal() {
+        try {
+            char op = operationDisplay.charAt(0);
+            BigDecimal valueInDisplay = new BigDecimal(getResultDisplay());
+
+            BigDecimal result = doTheMath(op, tempDecimal, valueInDisplay,
+                    mathContext, policy);
+
+            if (METRICS != null) {
+                METRICS.operationCalculated(op);
+            }
+            if (history != null) {
+                history.add(op, tempDecimal, valueInDisplay, result);
+            }
+
+            setDisplay(toDisplay(result));
+            setOperationDisplay("");
+
+            // After this operation we expect the user to introduce a new number
+            firstDigit = true;
+        } catch (NumberFormatException | ArithmeticException e) {
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Evaluates a compiled expression and shows its result on the display, as
+     * if it had been calculated with the keys.
+     *
+     * @param expression the expression to be evaluated.
+     */
+    public void evaluate(CalculatorExpression expression) {
+        saveState();
+
+        if (inErrorMode) {
+            return;
+        }
+
+        try {
+            setDisplay(expression.evaluate(policy));
+            setOperationDisplay("");
+
+            // After this operation we expect the user to introduce a new number
+            firstDigit = true;
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Compiles and evaluates an expression (like "12.5×(3+4)÷2") and shows its
+     * result on the display. Invalid expressions make the calculator enter
+     * error mode.
+     *
+     * @param expression the expression to be evaluated.
+     */
+    public void evaluate(String expression) {
+        saveState();
+
+        if (inErrorMode) {
+            return;
+        }
+
+        try {
+            evaluate(CalculatorExpression.compile(expression, registers));
+        } catch (IllegalArgumentException e) {
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Applies a function (square root, logarithm...) to the value on the
+     * display and shows the result, as if it had been typed.
+     *
+     * Like in pocket calculators, the percentage depends on the operation
+     * pending: after '+' or '-' it is a percentage of the stored value (so
+     * "200 + 10 % =" gives 220), otherwise it is just a hundredth.
+     *
+     * Functions are calculated with doubles, even in arbitrary-precision
+     * mode.
+     *
+     * @param function the function (an operation that is not binary).
+     */
+    public void applyFunction(CalculatorOperation function) {
+        if (function.isBinary()) {
+            throw new IllegalArgumentException(function + " is not a function");
+        }
+
+        saveState();
+
+        if (inErrorMode) {
+            return;
+        }
+
+        try {
+            double value = Double.parseDouble(getResultDisplay());
+            double result;
+
+            if (function == CalculatorOperation.PERCENT
+                    && (operationDisplay.equals("+")
+                    || operationDisplay.equals("-"))) {
+                double stored = (mathContext == null)
+                        ? tempValue : tempDecimal.doubleValue();
+                result = policy.round(stored * value / 100.0);
+            } else {
+                result = doTheMath(function, value, policy);
+            }
+
+            if (METRICS != null) {
+                METRICS.functionApplied();
+            }
+
+            if (mathContext == null) {
+                setDisplay(result);
+            } else {
+                setDisplay(toDisplay(BigDecimal.valueOf(result)));
+            }
+
+            // The next digit starts a new number
+            firstDigit = true;
+        } catch (NumberFormatException | ArithmeticException e) {
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Returns the registers of the calculator.
+     *
+     * @return the registers of the calculator.
+     */
+    public CalculatorRegisters getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Clears the memory register (MC).
+     */
+    public void memoryClear() {
+        registers.set(CalculatorRegisters.MEMORY, 0.0);
+    }
+
+    /**
+     * Shows the value of the memory register on the display (MR).
+     */
+    public void memoryRecall() {
+        recall(CalculatorRegisters.MEMORY);
+    }
+
+    /**
+     * Adds the value on the display to the memory register (M+).
+     */
+    public void memoryAdd() {
+        accumulate('+');
+    }
+
+    /**
+     * Subtracts the value on the display from the memory register (M-).
+     */
+    public void memorySubtract() {
+        accumulate('-');
+    }
+
+    /**
+     * Stores the value on the display in a named register (nothing is done,
+     * not even checking the name, in error mode).
+     *
+     * @param name the name of the register.
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public void store(String name) throws IllegalArgumentException {
+        if (inErrorMode) {
+            return;
+        }
+
+        try {
+            registers.set(name, Double.parseDouble(getResultDisplay()));
+        } catch (NumberFormatException e) {
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Shows the value of a named register on the display. Undefined
+     * registers make the calculator enter error mode.
+     *
+     * @param name the name of the register.
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public void recall(String name) throws IllegalArgumentException {
+        int slot = registers.find(name);
+        if (slot >= 0) {
+            recall(slot);
+            return;
+        }
+
+        // A register never set is not given a slot just to fail
+        saveState();
+        if (!inErrorMode) {
+            enterErrorMode(new IllegalArgumentException("Undefined register \""
+                    + name + "\""));
+        }
+    }
+
+    /**
+     * Shows the value of a register on the display, as if it had been typed.
+     *
+     * @param slot the slot of the register.
+     */
+    private void recall(int slot) {
+        saveState();
+
+        if (inErrorMode) {
+            return;
+        }
+
+        try {
+            setDisplay(registers.get(slot));
+
+            // The next digit starts a new number
+            firstDigit = true;
+        } catch (IllegalArgumentException e) {
+            enterErrorMode(e);
+        }
+    }
+
+    /**
+     * Adds the value on the display to the memory register or subtracts it,
+     * rounding like any other operation.
+     *
+     * @param op '+' or '-'.
+     */
+    private void accumulate(char op) {
+        saveState();
+
+        if (inErrorMode) {
+            return;
+        }
+
+        try {
+            double value = Double.parseDouble(getResultDisplay());
+            registers.set(CalculatorRegisters.MEMORY, doTheMath(op,
+                    registers.get(CalculatorRegisters.MEMORY), value, policy));
+
+            // The next digit starts a new number
+            firstDigit = true;
+        } catch (NumberFormatException | ArithmeticException e) {
+            enterErrorMode(e);
         }
     }
 
@@ -266,11 +1113,13 @@ final class CalculatorModel {
      * Cleans the screen (but maintains operation and the stored tempValue).
      */
     public void clean() {
+        saveState();
+
         if (inErrorMode) {
             return;
         }
 
-        resultDisplay = "0";
+        replaceDisplay(false, '0', false);
         firstDigit = true;
     }
 
@@ -278,13 +1127,122 @@ final class CalculatorModel {
      * Resets the calculator.
      */
     public void reset() {
+        saveState();
+
         tempValue = 0.0;
+        tempDecimal = BigDecimal.ZERO;
 
-        resultDisplay = "0";
+        replaceDisplay(false, '0', false);
         firstDigit = true;
         inErrorMode = false;
 
-        operationDisplay = "";
+        setOperationDisplay("");
+    }
+
+    /**
+     * Goes back to the state before the last action (if there is one). It
+     * also works in error mode.
+     */
+    public void undo() {
+        saveState();
+
+        if (undoHistory.size() < 2) {
+            return;
+        }
+
+        redoHistory.push(undoHistory.pop());
+        restore(undoHistory.peek());
+    }
+
+    /**
+     * Goes forward to the state before the last undo() (if there is one).
+     */
+    public void redo() {
+        // Changing anything after an undo forgets what could be redone
+        saveState();
+
+        if (redoHistory.isEmpty()) {
+            return;
+        }
+
+        State next = redoHistory.pop();
+        undoHistory.push(next);
+        restore(next);
+    }
+
+    /**
+     * Saves the current state in the history if it has changed since the last
+     * one saved (the state on top of the history is always the current one,
+     * as of the last call). It is called before every action, so the state
+     * saved is the one left by the previous actions.
+     *
+     * The current state is compared field by field with the last one saved,
+     * so nothing is allocated unless it has changed, and actions that don't
+     * change anything keep what can be redone.
+     */
+    private void saveState() {
+        if (historyDepth == 0 || isCurrent(undoHistory.peek())) {
+            return;
+        }
+
+        undoHistory.push(snapshot());
+        if (undoHistory.size() > historyDepth + 1) {
+            undoHistory.removeLast();
+        }
+        redoHistory.clear();
+    }
+
+    /**
+     * Tells if a saved state is the current state, without creating a
+     * snapshot.
+     *
+     * @param state the saved state, or null.
+     * @return true if the state is the current one.
+     */
+    private boolean isCurrent(State state) {
+        if (state == null || firstDigit != state.firstDigit
+                || inErrorMode != state.inErrorMode
+                || Double.compare(tempValue, state.tempValue) != 0
+                || !operationDisplay.equals(state.operationDisplay)
+                || !Objects.equals(tempDecimal, state.tempDecimal)) {
+            return false;
+        }
+
+        String text = state.resultDisplay;
+        int start = negative ? 0 : 1;
+        if (text.length() != displayEnd - start) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) != display[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an immutable copy of the current state.
+     *
+     * @return the current state.
+     */
+    private State snapshot() {
+        return new State(getResultDisplay(), operationDisplay, tempValue,
+                tempDecimal, firstDigit, inErrorMode);
+    }
+
+    /**
+     * Goes back to a saved state.
+     *
+     * @param state the state.
+     */
+    private void restore(State state) {
+        setDisplay(state.resultDisplay);
+        setOperationDisplay(state.operationDisplay);
+        tempValue = state.tempValue;
+        tempDecimal = state.tempDecimal;
+        firstDigit = state.firstDigit;
+        inErrorMode = state.inErrorMode;
     }
 
     /**
@@ -294,11 +1252,157 @@ final class CalculatorModel {
      *
      * In this mode the display will show "Error" and only pressing the AC
      * button can make it leave this state.
+     *
+     * @param cause the exception that made the calculator enter error mode.
      */
-    private void enterErrorMode() {
+    private void enterErrorMode(Exception cause) {
+        if (METRICS != null) {
+            METRICS.errorModeEntered(cause);
+        }
+
         inErrorMode = true;
-        resultDisplay = "Error";
-        operationDisplay = "";
+        setDisplay("Error");
+        setOperationDisplay("");
+    }
+
+    /**
+     * Marks the result display as changed, so its String has to be created
+     * again.
+     */
+    private void displayChanged() {
+        resultDisplay = null;
+        resultChanged = true;
+    }
+
+    /**
+     * Replaces the content of the operation display.
+     *
+     * @param text the new content of the operation display.
+     */
+    private void setOperationDisplay(String text) {
+        if (!text.equals(operationDisplay)) {
+            operationDisplay = text;
+            operationChanged = true;
+        }
+    }
+
+    /**
+     * Replaces the content of the display with a single digit, optionally
+     * negative and followed by the dot.
+     *
+     * @param minus true if the value on display must be negative.
+     * @param digit the digit to be displayed.
+     * @param dot true if the digit must be followed by the dot.
+     */
+    private void replaceDisplay(boolean minus, char digit, boolean dot) {
+        negative = minus;
+        display[1] = digit;
+        if (dot) {
+            display[2] = '.';
+            dotPosition = 2;
+            displayEnd = 3;
+        } else {
+            dotPosition = -1;
+            displayEnd = 2;
+        }
+        minusInExponent = false;
+        displayChanged();
+    }
+
+    /**
+     * Replaces the content of the display with a result, formatted straight
+     * into the display buffer (see CalculatorFormatter).
+     *
+     * @param value the result to be displayed.
+     */
+    private void setDisplay(double value) {
+        if (legacyDisplay) {
+            setDisplay(Double.toString(value));
+            return;
+        }
+
+        negative = Double.doubleToRawLongBits(value) < 0;
+        displayEnd = CalculatorFormatter.format(Math.abs(value), policy,
+                display, 1);
+
+        dotPosition = -1;
+        minusInExponent = false;
+        for (int i = 1; i < displayEnd; i++) {
+            if (display[i] == '.') {
+                dotPosition = i;
+            } else if (display[i] == '-') {
+                minusInExponent = true;
+            }
+        }
+
+        displayChanged();
     }
 
+    /**
+     * Replaces the content of the display with the given text.
+     *
+     * @param text the text to be displayed.
+     */
+    private void setDisplay(String text) {
+        negative = text.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+
+        // Arbitrary-precision results can be longer than any double
+        if (text.length() - start + 1 > display.length) {
+            display = Arrays.copyOf(display, text.length() - start + 1);
+        }
+
+        dotPosition = -1;
+        minusInExponent = false;
+        displayEnd = 1;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                dotPosition = displayEnd;
+            } else if (c == '-') {
+                minusInExponent = true;
+            }
+            display[displayEnd++] = c;
+        }
+
+        resultDisplay = text;
+        resultChanged = true;
+    }
+
+    /**
+     * An immutable snapshot of the state of the model.
+     *
+     * The Strings and BigDecimals are immutable too, so consecutive snapshots
+     * share them instead of copying them.
+     */
+    private final static class State {
+
+        private final String resultDisplay;
+        private final String operationDisplay;
+        private final double tempValue;
+        private final BigDecimal tempDecimal;
+        private final boolean firstDigit;
+        private final boolean inErrorMode;
+
+        /**
+         * Constructor for class State.
+         *
+         * @param resultDisplay the content of the result display.
+         * @param operationDisplay the content of the operation display.
+         * @param tempValue the stored value.
+         * @param tempDecimal the stored value in arbitrary-precision mode.
+         * @param firstDigit true if a new number is expected.
+         * @param inErrorMode true if the calculator is in error mode.
+         */
+        State(String resultDisplay, String operationDisplay, double tempValue,
+                BigDecimal tempDecimal, boolean firstDigit,
+                boolean inErrorMode) {
+            this.resultDisplay = resultDisplay;
+            this.operationDisplay = operationDisplay;
+            this.tempValue = tempValue;
+            this.tempDecimal = tempDecimal;
+            this.firstDigit = firstDigit;
+            this.inErrorMode = inErrorMode;
+        }
+    }
 }
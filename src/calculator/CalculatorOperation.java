@@ -0,0 +1,316 @@
+package calculator;
+
+/**
+ * The operations of the calculator: the binary operations between the stored
+ * value and the value on the display, and the scientific functions applied
+ * to the value on the display alone.
+ *
+ * Operations are looked up by symbol in a table indexed by char and applied
+ * by a single method that switches on the ordinal, so the JIT sees one
+ * monomorphic call site and a dense jump table instead of a chain of
+ * comparisons or a virtual call per operation.
+ *
+ * Trigonometric functions work in degrees, like the usual pocket calculators.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+enum CalculatorOperation {
+
+    /**
+     * Addition.
+     */
+    ADD('+', "+", true),
+    /**
+     * Subtraction.
+     */
+    SUBTRACT('-', "-", true),
+    /**
+     * Multiplication.
+     */
+    MULTIPLY('×', "×", true),
+    /**
+     * Division.
+     */
+    DIVIDE('÷', "÷", true),
+    /**
+     * Power: the stored value raised to the value on the display.
+     */
+    POWER('^', "xʸ", true),
+    /**
+     * Square root.
+     */
+    SQRT("√"),
+    /**
+     * Square.
+     */
+    SQUARE("x²"),
+    /**
+     * Reciprocal (1/x).
+     */
+    RECIPROCAL("1/x"),
+    /**
+     * Percentage (x/100, see CalculatorModel.applyFunction).
+     */
+    PERCENT("%"),
+    /**
+     * Decimal logarithm.
+     */
+    LOG("log"),
+    /**
+     * Natural logarithm.
+     */
+    LN("ln"),
+    /**
+     * Sine (degrees).
+     */
+    SIN("sin"),
+    /**
+     * Cosine (degrees).
+     */
+    COS("cos"),
+    /**
+     * Tangent (degrees).
+     */
+    TAN("tan");
+
+    /**
+     * Size of the table of operations by symbol: every symbol of the binary
+     * operations is below it.
+     */
+    private final static int TABLE_SIZE = 256;
+
+    /**
+     * The binary operations, indexed by symbol.
+     */
+    private final static CalculatorOperation[] BY_SYMBOL
+            = new CalculatorOperation[TABLE_SIZE];
+
+    static {
+        for (CalculatorOperation operation : values()) {
+            if (operation.binary) {
+                BY_SYMBOL[operation.symbol] = operation;
+            }
+        }
+    }
+
+    private final char symbol;
+    private final String label;
+    private final boolean binary;
+
+    /**
+     * Constructor for the functions (operations with one operand).
+     *
+     * @param label the text of the button of the function.
+     */
+    CalculatorOperation(String label) {
+        this((char) 0, label, false);
+    }
+
+    /**
+     * Constructor for enum CalculatorOperation.
+     *
+     * @param symbol the char that identifies the operation (the one shown on
+     * the operation display).
+     * @param label the text of the button of the operation.
+     * @param binary true if the operation has two operands.
+     */
+    CalculatorOperation(char symbol, String label, boolean binary) {
+        this.symbol = symbol;
+        this.label = label;
+        this.binary = binary;
+    }
+
+    /**
+     * Returns the binary operation identified by a symbol.
+     *
+     * @param symbol a char ('+', '-', '×', '÷' or '^').
+     * @return the operation, or null if there is none with that symbol.
+     */
+    static CalculatorOperation forSymbol(char symbol) {
+        return (symbol < TABLE_SIZE) ? BY_SYMBOL[symbol] : null;
+    }
+
+    /**
+     * Returns the operation typed with a key of the keyboard: '^' (power),
+     * '@' (square root), 'q' (square), 'v' (reciprocal), '%' (percentage), 'l'
+     * (decimal logarithm), 'e' (natural logarithm), 'i' (sine), 'o' (cosine)
+     * or 't' (tangent), letters in any case.
+     *
+     * @param key the character typed.
+     * @return the operation, or null if the key is not one of them.
+     */
+    static CalculatorOperation forKey(char key) {
+        switch (key) {
+            case '^':
+                return POWER;
+            case '@':
+                return SQRT;
+            case 'q':
+            case 'Q':
+                return SQUARE;
+            case 'v':
+            case 'V':
+                return RECIPROCAL;
+            case '%':
+                return PERCENT;
+            case 'l':
+            case 'L':
+                return LOG;
+            case 'e':
+            case 'E':
+                return LN;
+            case 'i':
+            case 'I':
+                return SIN;
+            case 'o':
+            case 'O':
+                return COS;
+            case 't':
+            case 'T':
+                return TAN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the function with a name, as written in expressions (like
+     * "sqrt" or "sin").
+     *
+     * @param name the name of the function.
+     * @return the function, or null if there is none with that name.
+     */
+    static CalculatorOperation forName(String name) {
+        switch (name) {
+            case "sqrt":
+                return SQRT;
+            case "sqr":
+                return SQUARE;
+            case "inv":
+                return RECIPROCAL;
+            case "log":
+                return LOG;
+            case "ln":
+                return LN;
+            case "sin":
+                return SIN;
+            case "cos":
+                return COS;
+            case "tan":
+                return TAN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the char that identifies a binary operation.
+     *
+     * @return the char that identifies the operation (0 for functions).
+     */
+    char getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns the text of the button of the operation.
+     *
+     * @return the text of the button of the operation.
+     */
+    String getLabel() {
+        return label;
+    }
+
+    /**
+     * Tells if the operation has two operands.
+     *
+     * @return true for binary operations, false for functions.
+     */
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Applies the operation, without rounding the result.
+     *
+     * @param v1 the first operand (the only one for functions).
+     * @param v2 the second operand (ignored by functions).
+     * @return the result of the operation.
+     * @throws ArithmeticException in case of division by 0 or an input
+     * outside the domain of a function.
+     */
+    double apply(double v1, double v2) throws ArithmeticException {
+        switch (this) {
+            case ADD:
+                return v1 + v2;
+            case SUBTRACT:
+                return v1 - v2;
+            case MULTIPLY:
+                return v1 * v2;
+            case DIVIDE:
+                if (v2 == 0.0) {
+                    throw new ArithmeticException("Division by 0");
+                }
+                return v1 / v2;
+            case POWER:
+                return checkDomain(Math.pow(v1, v2));
+            case SQRT:
+                return checkDomain(Math.sqrt(v1));
+            case SQUARE:
+                return v1 * v1;
+            case RECIPROCAL:
+                if (v1 == 0.0) {
+                    throw new ArithmeticException("Division by 0");
+                }
+                return 1.0 / v1;
+            case PERCENT:
+                return v1 / 100.0;
+            case LOG:
+                return checkDomain(Math.log10(checkPositive(v1)));
+            case LN:
+                return checkDomain(Math.log(checkPositive(v1)));
+            case SIN:
+                return Math.sin(Math.toRadians(v1));
+            case COS:
+                return Math.cos(Math.toRadians(v1));
+            case TAN:
+                if (Math.abs(Math.IEEEremainder(v1, 180.0)) == 90.0) {
+                    throw new ArithmeticException("Invalid input");
+                }
+                return Math.tan(Math.toRadians(v1));
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    /**
+     * Checks that a result is a number.
+     *
+     * @param result the result of an operation.
+     * @return the result.
+     * @throws ArithmeticException if the result is NaN (the input was outside
+     * the domain of the operation).
+     */
+    private static double checkDomain(double result)
+            throws ArithmeticException {
+        if (Double.isNaN(result)) {
+            throw new ArithmeticException("Invalid input");
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the input of a logarithm is positive.
+     *
+     * @param value the input.
+     * @return the input.
+     * @throws ArithmeticException if the input is not positive.
+     */
+    private static double checkPositive(double value)
+            throws ArithmeticException {
+        if (!(value > 0.0)) {
+            throw new ArithmeticException("Invalid input");
+        }
+        return value;
+    }
+}
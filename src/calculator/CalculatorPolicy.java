@@ -0,0 +1,315 @@
+package calculator;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The numeric policy of a calculator: how many digits the user can introduce,
+ * how many decimal places the results are rounded to and how.
+ *
+ * Policies are immutable. Everything the rounding needs (the power of ten of
+ * the scale, whether the mode can be decided with doubles) is computed when
+ * the policy is created, so rounding with any policy costs the same as with
+ * the default one: a multiplication, a floor and a comparison for most
+ * values. Only values that are too big, not finite or too close to the point
+ * where the mode decides go through BigDecimal.
+ *
+ * The result is always exactly the same as rounding the decimal
+ * representation of the value given by Double.toString with the rounding
+ * mode.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorPolicy {
+
+    /**
+     * Powers of ten that can be represented exactly as doubles, indexed by
+     * their exponent.
+     */
+    private final static double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+        1e13, 1e14, 1e15
+    };
+
+    /**
+     * Maximum number of digits that the user can be allowed to introduce
+     * (the display is sized for them).
+     */
+    final static int MAX_INPUT_DIGITS = 40;
+
+    /**
+     * Maximum number of decimal places of the results (a bit more than a
+     * double can tell apart; larger scales only make rounding slower).
+     */
+    final static int MAX_RESULT_SCALE = 20;
+
+    /**
+     * Upper limit for the scaled values (value × 10^scale) that are rounded
+     * with plain double arithmetic. Below it the rounding error of the scaling
+     * is a tiny fraction of a unit, so the rounding direction can be trusted
+     * unless the value is very close to the point where the mode decides.
+     */
+    private final static double MAX_FAST_ROUND = 1e12;
+
+    /**
+     * Distance to a half, or to an integer for the directed modes (measured in
+     * ulps of the scaled value), under which the fast rounding path leaves
+     * the decision to BigDecimal.
+     */
+    private final static int TIE_ULPS = 8;
+
+    /*
+     * How the fast path decides, precomputed from the rounding mode.
+     */
+    private final static int NEAREST = 0;
+    private final static int TOWARD_ZERO = 1;
+    private final static int AWAY_FROM_ZERO = 2;
+    private final static int TOWARD_POSITIVE = 3;
+    private final static int TOWARD_NEGATIVE = 4;
+    private final static int EXACT = 5;
+
+    /**
+     * The default policy: 12 digits, results rounded HALF_UP to 5 decimal
+     * places (it must be created after the constants above).
+     */
+    final static CalculatorPolicy DEFAULT
+            = new CalculatorPolicy(12, 5, RoundingMode.HALF_UP);
+
+    private final int inputDigits;
+    private final int resultScale;
+    private final RoundingMode roundingMode;
+
+    /**
+     * 10^resultScale, or 0 if it can't be represented exactly (then every
+     * value is rounded with BigDecimal).
+     */
+    private final double factor;
+    private final int direction;
+
+    /**
+     * Constructor for class CalculatorPolicy.
+     *
+     * @param inputDigits maximum number of digits that the user can
+     * introduce (up to MAX_INPUT_DIGITS).
+     * @param resultScale maximum number of decimal places of the results (up
+     * to MAX_RESULT_SCALE).
+     * @param roundingMode how the results are rounded to that scale.
+     * @throws IllegalArgumentException if a number is out of range.
+     */
+    public CalculatorPolicy(int inputDigits, int resultScale,
+            RoundingMode roundingMode) throws IllegalArgumentException {
+        if (inputDigits < 1 || inputDigits > MAX_INPUT_DIGITS) {
+            throw new IllegalArgumentException("Input digits must be from 1 "
+                    + "to " + MAX_INPUT_DIGITS);
+        }
+        if (resultScale < 0 || resultScale > MAX_RESULT_SCALE) {
+            throw new IllegalArgumentException("Scale must be from 0 to "
+                    + MAX_RESULT_SCALE);
+        }
+
+        this.inputDigits = inputDigits;
+        this.resultScale = resultScale;
+        this.roundingMode = roundingMode;
+        this.factor = (resultScale < POWERS_OF_TEN.length)
+                ? POWERS_OF_TEN[resultScale] : 0.0;
+
+        switch (roundingMode) {
+            case DOWN:
+                direction = TOWARD_ZERO;
+                break;
+            case UP:
+                direction = AWAY_FROM_ZERO;
+                break;
+            case CEILING:
+                direction = TOWARD_POSITIVE;
+                break;
+            case FLOOR:
+                direction = TOWARD_NEGATIVE;
+                break;
+            case UNNECESSARY:
+                direction = EXACT;
+                break;
+            default:
+                direction = NEAREST;
+        }
+    }
+
+    /**
+     * Parses a policy written as "digits,scale,MODE" (like "12,5,HALF_UP").
+     * The mode can be omitted, and then it is HALF_UP.
+     *
+     * @param text the policy.
+     * @return the policy.
+     * @throws IllegalArgumentException if the text is not a valid policy.
+     */
+    static CalculatorPolicy parse(String text) throws IllegalArgumentException {
+        String[] parts = text.split(",");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Expected digits,scale[,mode] "
+                    + "instead of \"" + text + "\"");
+        }
+
+        RoundingMode mode = (parts.length == 3)
+                ? RoundingMode.valueOf(parts[2].trim().toUpperCase())
+                : RoundingMode.HALF_UP;
+        return new CalculatorPolicy(Integer.parseInt(parts[0].trim()),
+                Integer.parseInt(parts[1].trim()), mode);
+    }
+
+    /**
+     * Returns the maximum number of digits that the user can introduce.
+     *
+     * @return the maximum number of digits that the user can introduce.
+     */
+    public int getInputDigits() {
+        return inputDigits;
+    }
+
+    /**
+     * Returns the maximum number of decimal places of the results.
+     *
+     * @return the maximum number of decimal places of the results.
+     */
+    public int getResultScale() {
+        return resultScale;
+    }
+
+    /**
+     * Returns 10^scale, the factor that turns a result into units of the
+     * scale.
+     *
+     * @return the factor, or 0 if it can't be represented exactly.
+     */
+    double getScaleFactor() {
+        return factor;
+    }
+
+    /**
+     * Returns how the results are rounded.
+     *
+     * @return the rounding mode.
+     */
+    public RoundingMode getRoundingMode() {
+        return roundingMode;
+    }
+
+    /**
+     * Rounds a result to the scale of the policy.
+     *
+     * @param value number to be rounded.
+     * @return rounded double.
+     * @throws NumberFormatException if the value is not finite.
+     * @throws ArithmeticException if the mode is UNNECESSARY and the value
+     * has more decimal places than the scale.
+     */
+    double round(double value) throws NumberFormatException,
+            ArithmeticException {
+        double scaled = Math.abs(value) * factor;
+
+        if (factor != 0.0 && scaled < MAX_FAST_ROUND) {
+            double floor = Math.floor(scaled);
+            double fraction = scaled - floor;
+            double tolerance = TIE_ULPS * Math.ulp(scaled);
+            double rounded;
+
+            if (direction == NEAREST) {
+                if (Math.abs(fraction - 0.5) <= tolerance) {
+                    return roundDecimal(value);
+                }
+                rounded = (fraction > 0.5) ? floor + 1.0 : floor;
+            } else if (fraction <= tolerance || fraction >= 1.0 - tolerance) {
+                // Usually the value has no more decimals than the scale
+                if (Math.rint(scaled) / factor != Math.abs(value)) {
+                    return roundDecimal(value);
+                }
+                rounded = Math.rint(scaled);
+            } else if (direction == AWAY_FROM_ZERO
+                    || (direction == TOWARD_POSITIVE && value > 0.0)
+                    || (direction == TOWARD_NEGATIVE && value < 0.0)) {
+                rounded = floor + 1.0;
+            } else if (direction == EXACT) {
+                return roundDecimal(value);
+            } else {
+                rounded = floor;
+            }
+
+            // BigDecimal has no negative zero
+            if (rounded == 0.0) {
+                return 0.0;
+            }
+            return Math.copySign(rounded / factor, value);
+        }
+
+        return roundDecimal(value);
+    }
+
+    /**
+     * Rounds a double to the scale of the policy using its decimal
+     * representation and BigDecimal.
+     *
+     * @param value number to be rounded.
+     * @return rounded double.
+     * @throws NumberFormatException if the value is not finite.
+     * @throws ArithmeticException if the mode is UNNECESSARY and the value
+     * has more decimal places than the scale.
+     */
+    private double roundDecimal(double value) throws NumberFormatException,
+            ArithmeticException {
+        BigDecimal bd = new BigDecimal(Double.toString(value));
+        bd = bd.setScale(resultScale, roundingMode);
+        return bd.doubleValue();
+    }
+
+    /**
+     * Rounds an arbitrary-precision result to the scale of the policy (if it
+     * has more decimal places).
+     *
+     * @param value number to be rounded.
+     * @return rounded number.
+     * @throws ArithmeticException if the mode is UNNECESSARY and the value
+     * has more decimal places than the scale.
+     */
+    BigDecimal round(BigDecimal value) throws ArithmeticException {
+        if (value.scale() > resultScale) {
+            return value.setScale(resultScale, roundingMode);
+        }
+        return value;
+    }
+
+    /**
+     * Tells if another object is a policy with the same settings.
+     *
+     * @param obj the other object.
+     * @return true if it is an equal policy.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CalculatorPolicy)) {
+            return false;
+        }
+        CalculatorPolicy other = (CalculatorPolicy) obj;
+        return inputDigits == other.inputDigits
+                && resultScale == other.resultScale
+                && roundingMode == other.roundingMode;
+    }
+
+    /**
+     * Returns a hash code consistent with equals.
+     *
+     * @return the hash code.
+     */
+    @Override
+    public int hashCode() {
+        return (inputDigits * 31 + resultScale) * 31 + roundingMode.hashCode();
+    }
+
+    /**
+     * Returns the policy as "digits,scale,MODE", the format parse() reads.
+     *
+     * @return the policy as text.
+     */
+    @Override
+    public String toString() {
+        return inputDigits + "," + resultScale + "," + roundingMode;
+    }
+}
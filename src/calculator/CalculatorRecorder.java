@@ -0,0 +1,303 @@
+package calculator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the actions of the user in a compact binary log, so they can be
+ * audited or replayed later (see CalculatorReplayer).
+ *
+ * The log starts with the magic bytes "CALC" and a version byte, followed by
+ * one byte per action:
+ *
+ * 0x00 to 0x09: a digit (0 to 9).
+ * 0x0A to 0x0D: an operation ('+', '-', '×' or '÷').
+ * 0x0E: switch sign. 0x0F: dot. 0x10: clean. 0x11: reset. 0x12: equal.
+ * 0x13: undo. 0x14: redo. 0x15: MC. 0x16: MR. 0x17: M+. 0x18: M-.
+ * 0x19: power. 0x25: square root. 0x26: square. 0x27: reciprocal.
+ * 0x28: percentage. 0x29: log. 0x2A: ln. 0x2B: sin. 0x2C: cos. 0x2D: tan.
+ * 0x80 to 0xCF: a run of 2 to 9 times the same digit, encoded as
+ * 0x80 | digit &lt;&lt; 3 | (length - 2).
+ *
+ * Like a PrintStream, the recorder never throws: if the log can't be written
+ * it stops recording and checkError() returns true.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorRecorder implements Closeable {
+
+    /**
+     * Bytes at the start of every log.
+     */
+    final static byte[] MAGIC = {'C', 'A', 'L', 'C'};
+
+    /**
+     * Version of the format of the log.
+     */
+    final static int VERSION = 1;
+
+    /*
+     * Action codes.
+     */
+    final static int ADD = 0x0A;
+    final static int SUB = 0x0B;
+    final static int MUL = 0x0C;
+    final static int DIV = 0x0D;
+    final static int SIGN = 0x0E;
+    final static int DOT = 0x0F;
+    final static int CLEAN = 0x10;
+    final static int RESET = 0x11;
+    final static int EQUAL = 0x12;
+    final static int UNDO = 0x13;
+    final static int REDO = 0x14;
+    final static int MEMORY_CLEAR = 0x15;
+    final static int MEMORY_RECALL = 0x16;
+    final static int MEMORY_ADD = 0x17;
+    final static int MEMORY_SUBTRACT = 0x18;
+    final static int POW = 0x19;
+
+    /*
+     * Function codes. They are part of the format, so they must never change
+     * (new functions get new codes).
+     */
+    final static int SQRT = 0x25;
+    final static int SQUARE = 0x26;
+    final static int RECIPROCAL = 0x27;
+    final static int PERCENT = 0x28;
+    final static int LOG = 0x29;
+    final static int LN = 0x2A;
+    final static int SIN = 0x2B;
+    final static int COS = 0x2C;
+    final static int TAN = 0x2D;
+
+    /**
+     * Flag of the bytes that encode a run of digits.
+     */
+    final static int DIGIT_RUN = 0x80;
+
+    /**
+     * Longest run of digits that fits in a byte.
+     */
+    final static int MAX_RUN = 9;
+
+    private final OutputStream out;
+
+    private int pendingDigit = -1;
+    private int pendingRun;
+    private boolean error;
+
+    /**
+     * Constructor for class CalculatorRecorder. Writes the header of the log.
+     *
+     * @param out where the log is written.
+     * @throws IOException if the header can't be written.
+     */
+    public CalculatorRecorder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    /**
+     * Records a digit.
+     *
+     * @param n the digit (0 to 9).
+     */
+    public void recordDigit(int n) {
+        if (n == pendingDigit && pendingRun < MAX_RUN) {
+            pendingRun++;
+            return;
+        }
+
+        flushDigits();
+        pendingDigit = n;
+        pendingRun = 1;
+    }
+
+    /**
+     * Records an operation.
+     *
+     * @param op a char ('+', '-', '×', or '÷') indicating the operation.
+     */
+    public void recordOperation(char op) {
+        switch (op) {
+            case '+':
+                record(ADD);
+                break;
+            case '-':
+                record(SUB);
+                break;
+            case '×':
+                record(MUL);
+                break;
+            case '÷':
+                record(DIV);
+                break;
+            case '^':
+                record(POW);
+                break;
+        }
+    }
+
+    /**
+     * Records a sign switch.
+     */
+    public void recordSign() {
+        record(SIGN);
+    }
+
+    /**
+     * Records a dot.
+     */
+    public void recordDot() {
+        record(DOT);
+    }
+
+    /**
+     * Records a clean.
+     */
+    public void recordClean() {
+        record(CLEAN);
+    }
+
+    /**
+     * Records a reset.
+     */
+    public void recordReset() {
+        record(RESET);
+    }
+
+    /**
+     * Records an equal.
+     */
+    public void recordEqual() {
+        record(EQUAL);
+    }
+
+    /**
+     * Records an undo.
+     */
+    public void recordUndo() {
+        record(UNDO);
+    }
+
+    /**
+     * Records a redo.
+     */
+    public void recordRedo() {
+        record(REDO);
+    }
+
+    /**
+     * Records a function.
+     *
+     * @param function the function (an operation that is not binary).
+     */
+    public void recordFunction(CalculatorOperation function) {
+        switch (function) {
+            case SQRT:
+                record(SQRT);
+                break;
+            case SQUARE:
+                record(SQUARE);
+                break;
+            case RECIPROCAL:
+                record(RECIPROCAL);
+                break;
+            case PERCENT:
+                record(PERCENT);
+                break;
+            case LOG:
+                record(LOG);
+                break;
+            case LN:
+                record(LN);
+                break;
+            case SIN:
+                record(SIN);
+                break;
+            case COS:
+                record(COS);
+                break;
+            case TAN:
+                record(TAN);
+                break;
+            default:
+                throw new IllegalArgumentException("No code for " + function);
+        }
+    }
+
+    /**
+     * Records a memory action.
+     *
+     * @param action MEMORY_CLEAR, MEMORY_RECALL, MEMORY_ADD or MEMORY_SUBTRACT.
+     */
+    public void recordMemory(int action) {
+        record(action);
+    }
+
+    /**
+     * Tells if the log couldn't be written at some point.
+     *
+     * @return true if recording stopped because of an error.
+     */
+    public boolean checkError() {
+        return error;
+    }
+
+    /**
+     * Writes everything recorded so far and closes the log.
+     */
+    @Override
+    public void close() {
+        flushDigits();
+        try {
+            out.close();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    /**
+     * Records an action other than a digit.
+     *
+     * @param action the code of the action.
+     */
+    private void record(int action) {
+        flushDigits();
+        write(action);
+    }
+
+    /**
+     * Writes the pending run of digits, if any.
+     */
+    private void flushDigits() {
+        if (pendingRun == 1) {
+            write(pendingDigit);
+        } else if (pendingRun > 1) {
+            write(DIGIT_RUN | pendingDigit << 3 | (pendingRun - 2));
+        }
+
+        pendingDigit = -1;
+        pendingRun = 0;
+    }
+
+    /**
+     * Writes a byte to the log, unless it has already failed.
+     *
+     * @param b the byte.
+     */
+    private void write(int b) {
+        if (error) {
+            return;
+        }
+
+        try {
+            out.write(b);
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+}
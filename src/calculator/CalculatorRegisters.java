@@ -0,0 +1,212 @@
+package calculator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The memory of the calculator: the classic memory register (M+, M-, MR and
+ * MC) plus any number of named registers.
+ *
+ * Every register has a slot, a small int given when it is first set (looking
+ * a name up never gives it one, so names that are only referred to don't
+ * take any memory).
+ * The values are kept in a plain double array indexed by slot, so expressions
+ * resolve the names once when they are compiled (see CalculatorExpression)
+ * and then read the values without any lookup or boxing, no matter how many
+ * times they are evaluated. Only resolving a name goes through a map.
+ *
+ * Instances are not thread-safe: every thread should use its own.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorRegisters {
+
+    /**
+     * Slot of the classic memory register.
+     */
+    final static int MEMORY = 0;
+
+    /**
+     * Name of the classic memory register.
+     */
+    final static String MEMORY_NAME = "M";
+
+    /**
+     * Initial number of slots.
+     */
+    private final static int INITIAL_SLOTS = 8;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[INITIAL_SLOTS];
+    private double[] values = new double[INITIAL_SLOTS];
+    private boolean[] defined = new boolean[INITIAL_SLOTS];
+    private int size;
+
+    /**
+     * Constructor for class CalculatorRegisters. The memory register starts
+     * defined as 0.
+     */
+    public CalculatorRegisters() {
+        slot(MEMORY_NAME);
+        defined[MEMORY] = true;
+    }
+
+    /**
+     * Returns the slot of a register, giving it one if it doesn't have one
+     * yet (the register is not defined until it is set).
+     *
+     * @param name the name of the register.
+     * @return the slot of the register.
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public int slot(String name) throws IllegalArgumentException {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid register name \""
+                    + name + "\"");
+        }
+
+        if (size == values.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            defined = Arrays.copyOf(defined, size * 2);
+        }
+        names[size] = name;
+        slots.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Returns the slot of a register, without giving it one.
+     *
+     * @param name the name of the register.
+     * @return the slot of the register, or -1 if it has never been set.
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public int find(String name) throws IllegalArgumentException {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid register name \""
+                    + name + "\"");
+        }
+        return -1;
+    }
+
+    /**
+     * Tells if a name can be used for a register: a letter or '_' followed by
+     * letters, digits or '_'.
+     *
+     * @param name the name.
+     * @return true if the name is valid.
+     */
+    static boolean isValidName(String name) {
+        if (name.isEmpty() || !isNameStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!isNamePart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells if a character can start a register name.
+     *
+     * @param c the character.
+     * @return true if the character can start a register name.
+     */
+    static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /**
+     * Tells if a character can be part of a register name.
+     *
+     * @param c the character.
+     * @return true if the character can be part of a register name.
+     */
+    static boolean isNamePart(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Returns the value of a register.
+     *
+     * @param slot the slot of the register.
+     * @return the value of the register.
+     * @throws IllegalArgumentException if the register is not defined.
+     */
+    public double get(int slot) throws IllegalArgumentException {
+        if (!defined[slot]) {
+            throw new IllegalArgumentException("Undefined register \""
+                    + names[slot] + "\"");
+        }
+        return values[slot];
+    }
+
+    /**
+     * Sets the value of a register.
+     *
+     * @param slot the slot of the register.
+     * @param value the new value.
+     */
+    public void set(int slot, double value) {
+        values[slot] = value;
+        defined[slot] = true;
+    }
+
+    /**
+     * Sets the value of a register by name.
+     *
+     * @param name the name of the register.
+     * @param value the new value.
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public void set(String name, double value) throws IllegalArgumentException {
+        set(slot(name), value);
+    }
+
+    /**
+     * Tells if a register is defined.
+     *
+     * @param slot the slot of the register.
+     * @return true if the register has a value.
+     */
+    public boolean isDefined(int slot) {
+        return defined[slot];
+    }
+
+    /**
+     * Returns the number of registers known (defined or not).
+     *
+     * @return the number of registers known.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Copies the values of every register defined in another set of
+     * registers, keeping the slots already given in this one.
+     *
+     * @param other the registers to be copied.
+     */
+    public void copyFrom(CalculatorRegisters other) {
+        for (int i = 0; i < other.size; i++) {
+            if (other.defined[i]) {
+                set(other.names[i], other.values[i]);
+            }
+        }
+    }
+}
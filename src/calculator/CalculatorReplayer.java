@@ -0,0 +1,189 @@
+package calculator;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays the binary logs written by CalculatorRecorder on a model.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorReplayer {
+
+    private final CalculatorModel model;
+
+    private long actions;
+
+    /**
+     * Constructor for class CalculatorReplayer.
+     *
+     * @param model the model the actions are replayed on.
+     */
+    public CalculatorReplayer(CalculatorModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Replays a whole log.
+     *
+     * @param log the log.
+     * @throws IOException if the log can't be read or is not valid.
+     */
+    public void replay(InputStream log) throws IOException {
+        InputStream in = new BufferedInputStream(log);
+
+        for (byte magic : CalculatorRecorder.MAGIC) {
+            if (in.read() != magic) {
+                throw new IOException("Not a calculator log");
+            }
+        }
+        if (in.read() != CalculatorRecorder.VERSION) {
+            throw new IOException("Unsupported calculator log version");
+        }
+
+        int b;
+        while ((b = in.read()) >= 0) {
+            apply(b);
+        }
+    }
+
+    /**
+     * Replays a single byte of the log.
+     *
+     * @param b the byte.
+     * @throws IOException if the byte is not a valid action.
+     */
+    private void apply(int b) throws IOException {
+        if ((b & CalculatorRecorder.DIGIT_RUN) != 0) {
+            int digit = (b >> 3) & 0x0F;
+            int run = (b & 0x07) + 2;
+            if (digit > 9) {
+                throw new IOException("Invalid digit run in calculator log");
+            }
+            for (int i = 0; i < run; i++) {
+                model.insertNumber(digit);
+            }
+            actions += run;
+            return;
+        }
+
+        switch (b) {
+            case CalculatorRecorder.ADD:
+                model.setOperation('+');
+                break;
+            case CalculatorRecorder.SUB:
+                model.setOperation('-');
+                break;
+            case CalculatorRecorder.MUL:
+                model.setOperation('×');
+                break;
+            case CalculatorRecorder.DIV:
+                model.setOperation('÷');
+                break;
+            case CalculatorRecorder.POW:
+                model.setOperation('^');
+                break;
+            case CalculatorRecorder.SIGN:
+                model.switchSign();
+                break;
+            case CalculatorRecorder.DOT:
+                model.insertDot();
+                break;
+            case CalculatorRecorder.CLEAN:
+                model.clean();
+                break;
+            case CalculatorRecorder.RESET:
+                model.reset();
+                break;
+            case CalculatorRecorder.EQUAL:
+                model.calculate();
+                break;
+            case CalculatorRecorder.UNDO:
+                model.undo();
+                break;
+            case CalculatorRecorder.REDO:
+                model.redo();
+                break;
+            case CalculatorRecorder.MEMORY_CLEAR:
+                model.memoryClear();
+                break;
+            case CalculatorRecorder.MEMORY_RECALL:
+                model.memoryRecall();
+                break;
+            case CalculatorRecorder.MEMORY_ADD:
+                model.memoryAdd();
+                break;
+            case CalculatorRecorder.MEMORY_SUBTRACT:
+                model.memorySubtract();
+                break;
+            case CalculatorRecorder.SQRT:
+                model.applyFunction(CalculatorOperation.SQRT);
+                break;
+            case CalculatorRecorder.SQUARE:
+                model.applyFunction(CalculatorOperation.SQUARE);
+                break;
+            case CalculatorRecorder.RECIPROCAL:
+                model.applyFunction(CalculatorOperation.RECIPROCAL);
+                break;
+            case CalculatorRecorder.PERCENT:
+                model.applyFunction(CalculatorOperation.PERCENT);
+                break;
+            case CalculatorRecorder.LOG:
+                model.applyFunction(CalculatorOperation.LOG);
+                break;
+            case CalculatorRecorder.LN:
+                model.applyFunction(CalculatorOperation.LN);
+                break;
+            case CalculatorRecorder.SIN:
+                model.applyFunction(CalculatorOperation.SIN);
+                break;
+            case CalculatorRecorder.COS:
+                model.applyFunction(CalculatorOperation.COS);
+                break;
+            case CalculatorRecorder.TAN:
+                model.applyFunction(CalculatorOperation.TAN);
+                break;
+            default:
+                if (b > 9) {
+                    throw new IOException("Invalid action in calculator log");
+                }
+                model.insertNumber(b);
+        }
+        actions++;
+    }
+
+    /**
+     * Returns the number of actions replayed so far.
+     *
+     * @return the number of actions replayed so far.
+     */
+    public long getActions() {
+        return actions;
+    }
+
+    /**
+     * Replays a log from the command line and prints the final content of
+     * the result display.
+     *
+     * @param args the command line arguments (after "--replay"): the log.
+     * @throws IOException if the log can't be read or is not valid.
+     */
+    public static void main(String[] args) throws IOException {
+        CalculatorModel model = new CalculatorModel();
+        model.setHistoryDepth(CalculatorModel.DEFAULT_HISTORY_DEPTH);
+        CalculatorReplayer replayer = new CalculatorReplayer(model);
+
+        long start = System.nanoTime();
+        try (InputStream in = new FileInputStream(args[0])) {
+            replayer.replay(in);
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+        System.out.println(model.getResultDisplay());
+        System.err.printf("%d actions in %.3f s: %.0f actions/s%n",
+                replayer.getActions(), seconds,
+                replayer.getActions() / seconds);
+    }
+}
@@ -0,0 +1,204 @@
+package calculator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of results of the calculator operations.
+ *
+ * It sits in front of CalculatorModel.doTheMath and remembers the rounded
+ * result of every (operation, first operand, second operand) triple, so
+ * workloads that repeat the same operations over and over (tax rates, unit
+ * conversions...) don't have to compute them again. Operations that fail
+ * (division by 0, for example) are never cached, so they throw the same
+ * exception every time.
+ *
+ * Instances are not thread-safe: every thread should use its own.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorResultCache {
+
+    /**
+     * Policies to choose the entry to be evicted when the cache is full.
+     */
+    enum Eviction {
+        /**
+         * Evicts the least recently used entry.
+         */
+        LRU,
+        /**
+         * Evicts the oldest entry, no matter how often it is used.
+         */
+        FIFO
+    }
+
+    private final int capacity;
+    private final Map<Key, Double> entries;
+
+    /**
+     * The policy of the results kept.
+     */
+    private CalculatorPolicy policy = CalculatorPolicy.DEFAULT;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor for class CalculatorResultCache.
+     *
+     * @param capacity maximum number of results kept.
+     * @param eviction policy to choose the result to be evicted.
+     */
+    public CalculatorResultCache(int capacity, Eviction eviction) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, Double>(16, 0.75f,
+                eviction == Eviction.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+                if (size() > CalculatorResultCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the result of the specified math operation, computing it only
+     * if it isn't in the cache.
+     *
+     * @param op a char ('+', '-', '×', or '÷') indicating the math operation to
+     * be calculated.
+     * @param v1 the first operand.
+     * @param v2 the second operand.
+     * @param p the policy the result is rounded with (changing it empties
+     * the cache).
+     * @return the result of the mathematical operation.
+     * @throws ArithmeticException in case of division by 0, for example.
+     */
+    public double doTheMath(char op, double v1, double v2, CalculatorPolicy p)
+            throws ArithmeticException {
+        if (!p.equals(policy)) {
+            entries.clear();
+            policy = p;
+        }
+
+        Key key = new Key(op, v1, v2);
+
+        Double result = entries.get(key);
+        if (result != null) {
+            hits++;
+            return result;
+        }
+
+        misses++;
+        double value = CalculatorModel.doTheMath(op, v1, v2, policy);
+        entries.put(key, value);
+        return value;
+    }
+
+    /**
+     * Returns the maximum number of results kept.
+     *
+     * @return the maximum number of results kept.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of results currently kept.
+     *
+     * @return the number of results currently kept.
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of operations found in the cache.
+     *
+     * @return the number of operations found in the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of operations that had to be computed.
+     *
+     * @return the number of operations that had to be computed.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of results evicted to make room for new ones.
+     *
+     * @return the number of results evicted.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns a summary of the counters of the cache.
+     *
+     * @return a summary of the counters of the cache.
+     */
+    @Override
+    public String toString() {
+        long total = hits + misses;
+
+        return String.format("%d hits, %d misses (%.1f%% hit rate), "
+                + "%d evictions, %d/%d entries", hits, misses,
+                (total == 0) ? 0.0 : 100.0 * hits / total, evictions,
+                entries.size(), capacity);
+    }
+
+    /**
+     * Key of the cache: the operation and the exact bits of both operands.
+     */
+    private final static class Key {
+
+        private final char op;
+        private final long v1;
+        private final long v2;
+
+        /**
+         * Constructor for class Key.
+         *
+         * @param op the operation.
+         * @param v1 the first operand.
+         * @param v2 the second operand.
+         */
+        Key(char op, double v1, double v2) {
+            this.op = op;
+            this.v1 = Double.doubleToLongBits(v1);
+            this.v2 = Double.doubleToLongBits(v2);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return op == k.op && v1 == k.v1 && v2 == k.v2;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = v1 * 31 + v2;
+            return (int) (h ^ (h >>> 32)) * 31 + op;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package calculator;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A calculator server for local tools, listening on the loopback interface.
+ *
+ * Every connection is a calculator session with its own model, served by its
+ * own thread (a virtual thread when the JVM supports them, a pooled platform
+ * thread otherwise). The protocol is line-based (UTF-8), one request per line
+ * and one response per line:
+ *
+ * "K keys" types the keys (as understood by the keyboard controller) and
+ * "E expression" evaluates an expression (see CalculatorExpression). Both
+ * answer with the content of the result display. "P digits,scale,MODE" sets
+ * the numeric policy of the session (see CalculatorPolicy) and answers with
+ * it. Anything else is answered with "Error".
+ *
+ * Requests can be pipelined: a client can send many requests without waiting
+ * for the responses, which are written in the same order and flushed when
+ * there are no more requests waiting.
+ *
+ * Requests longer than MAX_REQUEST_LENGTH chars close the connection, so a
+ * client can't exhaust the memory of the server with a line that never ends.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorServer implements Closeable {
+
+    /**
+     * Default port of the server.
+     */
+    final static int DEFAULT_PORT = 7070;
+
+    /**
+     * Size of the buffers of every connection.
+     */
+    private final static int BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum length of a request, in chars.
+     */
+    final static int MAX_REQUEST_LENGTH = 65536;
+
+    /**
+     * Creates the executor that runs the connections: one new virtual thread
+     * per task if the JVM supports them (Java 21 or later), or a cached pool
+     * of platform threads otherwise.
+     *
+     * @return the executor.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "calculator-connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for class CalculatorServer. Binds the server, but doesn't
+     * accept connections until start() is called.
+     *
+     * @param port the port to listen on (0 for any free port).
+     * @throws IOException if the port can't be bound.
+     */
+    public CalculatorServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 1024,
+                InetAddress.getLoopbackAddress());
+        executor = newConnectionExecutor();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the port the server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts accepting connections in a background thread.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::acceptConnections,
+                "calculator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                // The server has been closed
+            } catch (IOException e) {
+                System.err.println("Calculator server: " + e);
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a connection until the client closes it.
+     *
+     * @param socket the connection.
+     */
+    private void serve(Socket socket) {
+        CalculatorModel model = new CalculatorModel();
+
+        try (Socket s = socket;
+                RequestReader in = new RequestReader(new InputStreamReader(
+                        s.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        s.getOutputStream(), StandardCharsets.UTF_8),
+                        BUFFER_SIZE)) {
+            s.setTcpNoDelay(true);
+
+            String request;
+            while ((request = in.readLine()) != null) {
+                out.write(handle(model, request));
+                out.write('\n');
+
+                // Pipelined requests are answered together
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The client has gone away or sent a request too long
+        }
+    }
+
+    /**
+     * Handles a single request.
+     *
+     * @param model the model of the connection.
+     * @param request the request.
+     * @return the response.
+     */
+    static String handle(CalculatorModel model, String request) {
+        if (request.startsWith("K ")) {
+            for (int i = 2; i < request.length(); i++) {
+                CalculatorBatch.applyKey(model, request.charAt(i));
+            }
+            return model.getResultDisplay();
+        }
+        if (request.startsWith("E ")) {
+            model.evaluate(request.substring(2));
+            return model.getResultDisplay();
+        }
+        if (request.startsWith("P ")) {
+            try {
+                model.setPolicy(CalculatorPolicy.parse(request.substring(2)));
+                return model.getPolicy().toString();
+            } catch (IllegalArgumentException e) {
+                return "Error";
+            }
+        }
+        return "Error";
+    }
+
+    /**
+     * Reads the requests of a connection, line by line like
+     * BufferedReader.readLine() (lines end with '\n', '\r' or "\r\n"), but
+     * without letting a line grow beyond MAX_REQUEST_LENGTH chars.
+     */
+    private final static class RequestReader implements Closeable {
+
+        private final Reader in;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        /**
+         * Whether the last line ended with '\r', so a '\n' right after it
+         * must be skipped.
+         */
+        private boolean skipNewLine;
+
+        /**
+         * Constructor for class RequestReader.
+         *
+         * @param in where the requests are read from.
+         */
+        RequestReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next request.
+         *
+         * @return the request (without the line end), or null at the end of
+         * the stream.
+         * @throws IOException if it can't be read or it is too long.
+         */
+        String readLine() throws IOException {
+            StringBuilder line = null;
+
+            while (true) {
+                if (position == limit && !fill()) {
+                    return (line != null) ? line.toString() : null;
+                }
+
+                if (skipNewLine) {
+                    skipNewLine = false;
+                    if (buffer[position] == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+
+                int start = position;
+                while (position < limit && buffer[position] != '\n'
+                        && buffer[position] != '\r') {
+                    position++;
+                }
+
+                int length = position - start
+                        + ((line != null) ? line.length() : 0);
+                if (length > MAX_REQUEST_LENGTH) {
+                    throw new IOException("Request too long");
+                }
+
+                if (position < limit) {
+                    skipNewLine = (buffer[position++] == '\r');
+                    if (line == null) {
+                        return new String(buffer, start, position - start - 1);
+                    }
+                    return line.append(buffer, start, position - start - 1)
+                            .toString();
+                }
+
+                if (line == null) {
+                    line = new StringBuilder();
+                }
+                line.append(buffer, start, position - start);
+            }
+        }
+
+        /**
+         * Tells if readLine() can return without blocking. The '\n' of a
+         * "\r\n" line end doesn't count as a request.
+         *
+         * @return true if the next readLine() won't block.
+         * @throws IOException if the stream can't be read.
+         */
+        boolean ready() throws IOException {
+            while (true) {
+                if (position == limit) {
+                    if (!in.ready()) {
+                        return false;
+                    }
+                    if (!fill()) {
+                        // readLine() returns null at once
+                        return true;
+                    }
+                }
+
+                if (skipNewLine && buffer[position] == '\n') {
+                    skipNewLine = false;
+                    position++;
+                    continue;
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Reads more chars into the buffer (once it has been consumed).
+         *
+         * @return false at the end of the stream.
+         * @throws IOException if the stream can't be read.
+         */
+        private boolean fill() throws IOException {
+            int n = in.read(buffer, 0, buffer.length);
+            position = 0;
+            limit = Math.max(n, 0);
+            return n > 0;
+        }
+
+        /**
+         * Closes the stream.
+         *
+         * @throws IOException if the stream can't be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Stops accepting connections.
+     *
+     * @throws IOException if the server socket can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the server from the command line until the process is killed.
+     *
+     * @param args the command line arguments (after "--server"): the port.
+     * @throws IOException if the port can't be bound.
+     * @throws InterruptedException if interrupted while running.
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        CalculatorServer server = new CalculatorServer(port);
+        server.start();
+        System.err.println("Calculator server listening on "
+                + server.serverSocket.getLocalSocketAddress());
+
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,108 @@
+package calculator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-process calculator service shared by many threads.
+ *
+ * Every session has its own CalculatorModel, identified by a session id. The
+ * sessions live in a ConcurrentHashMap, so looking them up never takes a
+ * global lock, and every model is guarded by its own monitor (the model is
+ * not thread-safe, so calls to the same session are serialized). Threads
+ * working on different sessions never contend with each other.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorService {
+
+    private final ConcurrentMap<String, CalculatorModel> sessions
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the model of a session, creating it if it doesn't exist.
+     *
+     * @param sessionId the id of the session.
+     * @return the model of the session.
+     */
+    private CalculatorModel session(String sessionId) {
+        // get() first: computeIfAbsent locks the bin even if the key exists
+        CalculatorModel model = sessions.get(sessionId);
+        if (model == null) {
+            model = sessions.computeIfAbsent(sessionId,
+                    id -> new CalculatorModel());
+        }
+        return model;
+    }
+
+    /**
+     * Types some keys in a session (creating it if it doesn't exist).
+     *
+     * @param sessionId the id of the session.
+     * @param keys the keys typed, as understood by the keyboard controller.
+     * @return the content of the result display after the keys.
+     */
+    public String press(String sessionId, CharSequence keys) {
+        CalculatorModel model = session(sessionId);
+
+        synchronized (model) {
+            for (int i = 0; i < keys.length(); i++) {
+                CalculatorBatch.applyKey(model, keys.charAt(i));
+            }
+            return model.getResultDisplay();
+        }
+    }
+
+    /**
+     * Evaluates an expression in a session (creating it if it doesn't exist).
+     *
+     * @param sessionId the id of the session.
+     * @param expression the expression (see CalculatorExpression).
+     * @return the content of the result display after the evaluation.
+     */
+    public String evaluate(String sessionId, String expression) {
+        CalculatorModel model = session(sessionId);
+
+        synchronized (model) {
+            model.evaluate(expression);
+            return model.getResultDisplay();
+        }
+    }
+
+    /**
+     * Returns the content of the result display of a session.
+     *
+     * @param sessionId the id of the session.
+     * @return the content of the result display, or null if the session
+     * doesn't exist.
+     */
+    public String getResultDisplay(String sessionId) {
+        CalculatorModel model = sessions.get(sessionId);
+        if (model == null) {
+            return null;
+        }
+
+        synchronized (model) {
+            return model.getResultDisplay();
+        }
+    }
+
+    /**
+     * Closes a session, forgetting its state.
+     *
+     * @param sessionId the id of the session.
+     * @return true if the session existed.
+     */
+    public boolean close(String sessionId) {
+        return sessions.remove(sessionId) != null;
+    }
+
+    /**
+     * Returns the number of open sessions.
+     *
+     * @return the number of open sessions.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,130 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays keystroke tapes of any size by memory-mapping them.
+ *
+ * The tape format is the one of the batch mode: one session per line (lines
+ * end with '\n', '\r' or "\r\n", like for BufferedReader.readLine), every
+ * byte being a key typed (see CalculatorBatch; anything else is ignored) and
+ * every session starting with the memory register cleared. The keys are
+ * decoded straight from the mapped file and fed to the model, without
+ * creating a String for every line.
+ *
+ * The file is mapped in windows, so tapes bigger than the address space the
+ * JVM can map at once (or than the available memory) can be replayed too.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorTapeReader {
+
+    /**
+     * Size of every window of the file mapped at a time.
+     */
+    private final static long WINDOW_SIZE = 1L << 28;
+
+    private final CalculatorModel model;
+
+    private long sessions;
+    private long keys;
+
+    /**
+     * Constructor for class CalculatorTapeReader.
+     *
+     * @param model the model the keys are fed to.
+     */
+    public CalculatorTapeReader(CalculatorModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Replays every session of a tape and writes one result per line to the
+     * output.
+     *
+     * @param tape the file with the tape.
+     * @param out where the results are written.
+     * @throws IOException if the tape can't be read or the results written.
+     */
+    public void replay(Path tape, Writer out) throws IOException {
+        try (FileChannel channel = FileChannel.open(tape,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean inSession = false;
+            boolean afterReturn = false;
+
+            model.reset();
+            model.memoryClear();
+
+            for (long position = 0; position < size; position += WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW_SIZE, size - position));
+
+                while (window.hasRemaining()) {
+                    char key = (char) (window.get() & 0xFF);
+
+                    if (key == '\n' || key == '\r') {
+                        // The '\n' of a "\r\n" doesn't end another line
+                        if (key == '\r' || !afterReturn) {
+                            endSession(out);
+                        }
+                        inSession = false;
+                        afterReturn = (key == '\r');
+                    } else {
+                        afterReturn = false;
+                        if (CalculatorBatch.applyKey(model, key)) {
+                            keys++;
+                        }
+                        inSession = true;
+                    }
+                }
+            }
+
+            // The last line may not end with a line break
+            if (inSession) {
+                endSession(out);
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the result of the current session and resets the model (and its
+     * memory register) for the next one.
+     *
+     * @param out where the result is written.
+     * @throws IOException if the result can't be written.
+     */
+    private void endSession(Writer out) throws IOException {
+        out.write(model.getResultDisplay());
+        out.write('\n');
+        sessions++;
+        model.reset();
+        model.memoryClear();
+    }
+
+    /**
+     * Returns the number of sessions replayed so far.
+     *
+     * @return the number of sessions replayed so far.
+     */
+    public long getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the number of keys understood so far.
+     *
+     * @return the number of keys understood so far.
+     */
+    public long getKeys() {
+        return keys;
+    }
+}
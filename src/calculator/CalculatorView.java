@@ -1,6 +1,16 @@
 package calculator;
 
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.GridLayout;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
 import javax.swing.JButton;
+import javax.swing.JList;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 
@@ -18,6 +28,12 @@ final class CalculatorView extends javax.swing.JFrame {
      */
     public CalculatorView() {
         initComponents();
+        initHistory();
+        initMemory();
+        initScientific();
+
+        // The window is sized once, with every panel, before it is shown
+        pack();
         setVisible(true);
         setFocusable(true);
     }
@@ -253,6 +269,157 @@ final class CalculatorView extends javax.swing.JFrame {
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
+    /**
+     * Adds the history panel to the right of the generated form.
+     *
+     * The rows have a fixed height and a prototype value, so the list never
+     * has to measure all of them: only the visible rows are rendered.
+     */
+    private void initHistory() {
+        historyList = new JList<>();
+        historyList.setFixedCellHeight(
+                historyList.getFontMetrics(historyList.getFont()).getHeight()
+                + 2);
+        historyList.setPrototypeCellValue(historyPrototype());
+        historyList.setFocusable(false);
+
+        historyScrollPane = new JScrollPane(historyList);
+        historyScrollPane.setPreferredSize(new Dimension(
+                historyScrollPane.getPreferredSize().width,
+                getContentPane().getPreferredSize().height));
+
+        JPanel root = new JPanel(new BorderLayout());
+        root.add(getContentPane(), BorderLayout.CENTER);
+        root.add(historyScrollPane, BorderLayout.EAST);
+        setContentPane(root);
+    }
+
+    /**
+     * Returns a row of the history as wide as the widest one: both operands
+     * and the result as long as the longest text CalculatorFormatter writes.
+     *
+     * @return the prototype row.
+     */
+    private static String historyPrototype() {
+        char[] digits = new char[CalculatorFormatter.MAX_CHARS];
+        Arrays.fill(digits, '8');
+        String value = new String(digits);
+        return value + " × " + value + " = " + value;
+    }
+
+    /**
+     * Adds the row of memory buttons (MC, MR, M+ and M-) below the generated
+     * form, styled like the other function buttons.
+     */
+    private void initMemory() {
+        memoryClearButton = memoryButton("MC");
+        memoryRecallButton = memoryButton("MR");
+        memoryAddButton = memoryButton("M+");
+        memorySubtractButton = memoryButton("M-");
+
+        JPanel memoryPanel = new JPanel(new GridLayout(1, 4, 6, 0));
+        memoryPanel.add(memoryClearButton);
+        memoryPanel.add(memoryRecallButton);
+        memoryPanel.add(memoryAddButton);
+        memoryPanel.add(memorySubtractButton);
+
+        getContentPane().add(memoryPanel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Adds the panel of scientific buttons (every operation that is not on
+     * the generated form) to the left of the generated form.
+     */
+    private void initScientific() {
+        JPanel scientificPanel = new JPanel(new GridLayout(0, 2, 6, 6));
+
+        for (CalculatorOperation operation : CalculatorOperation.values()) {
+            if (operation.isBinary() && operation != CalculatorOperation.POWER) {
+                continue;
+            }
+
+            JButton button = new JButton(operation.getLabel());
+            button.setFont(new Font("Ubuntu", 1, 14)); // NOI18N
+            button.setForeground(new Color(255, 161, 0));
+            button.setFocusable(false);
+
+            scientificButtons.put(operation, button);
+            scientificPanel.add(button);
+        }
+
+        getContentPane().add(scientificPanel, BorderLayout.WEST);
+    }
+
+    /**
+     * Creates a memory button.
+     *
+     * @param text the text of the button.
+     * @return the button.
+     */
+    private static JButton memoryButton(String text) {
+        JButton button = new JButton(text);
+        button.setFont(new Font("Ubuntu", 1, 14)); // NOI18N
+        button.setForeground(new Color(255, 161, 0));
+        button.setFocusable(false);
+        return button;
+    }
+
+    /**
+     * Returns the memoryClearButton button.
+     *
+     * @return the memoryClearButton button.
+     */
+    public JButton getMemoryClearButton() {
+        return memoryClearButton;
+    }
+
+    /**
+     * Returns the memoryRecallButton button.
+     *
+     * @return the memoryRecallButton button.
+     */
+    public JButton getMemoryRecallButton() {
+        return memoryRecallButton;
+    }
+
+    /**
+     * Returns the memoryAddButton button.
+     *
+     * @return the memoryAddButton button.
+     */
+    public JButton getMemoryAddButton() {
+        return memoryAddButton;
+    }
+
+    /**
+     * Returns the memorySubtractButton button.
+     *
+     * @return the memorySubtractButton button.
+     */
+    public JButton getMemorySubtractButton() {
+        return memorySubtractButton;
+    }
+
+    /**
+     * Returns the button of a scientific operation.
+     *
+     * @param operation the operation.
+     * @return the button, or null if the operation has no scientific button
+     * (the basic operations are on the generated form).
+     */
+    public JButton getScientificButton(CalculatorOperation operation) {
+        return scientificButtons.get(operation);
+    }
+
+    /**
+     * Returns the historyList list.
+     *
+     * @return the historyList list.
+     */
+    public JList<String> getHistoryList() {
+        return historyList;
+    }
+
     /**
      * Returns the addButton button.
      *
@@ -475,4 +642,13 @@ final class CalculatorView extends javax.swing.JFrame {
     private javax.swing.JButton signButton;
     private javax.swing.JButton subButton;
     // End of variables declaration//GEN-END:variables
+
+    private JList<String> historyList;
+    private JScrollPane historyScrollPane;
+    private JButton memoryClearButton;
+    private JButton memoryRecallButton;
+    private JButton memoryAddButton;
+    private JButton memorySubtractButton;
+    private final Map<CalculatorOperation, JButton> scientificButtons
+            = new EnumMap<>(CalculatorOperation.class);
 }
@@ -0,0 +1,1059 @@
+package calculator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks for the headless parts of the calculator.
+ *
+ * Every benchmark uses a fixed seed, so the workload is the same from one run
+ * to the next. Run it with "ant bench" (optionally passing the names of the
+ * benchmarks to run in the bench.args property).
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorBenchmark {
+
+    /**
+     * Seed of the random generator used to build the workloads.
+     */
+    private final static long SEED = 42L;
+
+    /**
+     * Keys that can appear in a generated session (besides digits).
+     */
+    private final static String OPERATION_KEYS = "+-*/";
+
+    /**
+     * Operations understood by the model.
+     */
+    private final static char[] OPERATIONS = {'+', '-', '×', '÷'};
+
+    /**
+     * Number of warm up rounds of every benchmark (not measured).
+     */
+    private final static int WARMUP_ROUNDS = 5;
+
+    /**
+     * Number of measured rounds of every benchmark.
+     */
+    private final static int MEASURED_ROUNDS = 5;
+
+    /**
+     * Number of operations of every round.
+     */
+    private final static int ROUND_OPERATIONS = 1_000_000;
+
+    /**
+     * Size of the pools of pregenerated operands.
+     */
+    private final static int POOL_SIZE = 1 << 12;
+
+    /**
+     * Consumes the results of the benchmarks so the JIT can't discard them.
+     */
+    private static volatile double sink;
+
+    /**
+     * Constructor for class CalculatorBenchmark (not instantiable).
+     */
+    private CalculatorBenchmark() {
+    }
+
+    /**
+     * Generates a random but realistic session: a few operands of up to eight
+     * digits (some with decimals or sign switches) chained with operations and
+     * finished with the equal key.
+     *
+     * @param random the random generator.
+     * @return the keys of the session.
+     */
+    static String randomSession(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int operands = 2 + random.nextInt(4);
+
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                sb.append(OPERATION_KEYS.charAt(
+                        random.nextInt(OPERATION_KEYS.length())));
+            }
+
+            int digits = 1 + random.nextInt(8);
+            for (int d = 0; d < digits; d++) {
+                sb.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(4) == 0) {
+                sb.append('.');
+                sb.append((char) ('0' + random.nextInt(10)));
+                sb.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(10) == 0) {
+                sb.append('s');
+            }
+        }
+
+        return sb.append('=').toString();
+    }
+
+    /**
+     * Generates a tape of random sessions, one per line.
+     *
+     * @param sessions number of sessions.
+     * @return the tape.
+     */
+    static String randomTape(int sessions) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(sessions * 24);
+
+        for (int i = 0; i < sessions; i++) {
+            sb.append(randomSession(random)).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Generates a realistic operand: mostly prices with two decimals, some
+     * integers and some small quantities with several decimals.
+     *
+     * @param random the random generator.
+     * @return the operand.
+     */
+    static double randomOperand(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return random.nextInt(100_000) / 100.0;
+            case 1:
+                return random.nextInt(1_000_000);
+            default:
+                return random.nextInt(1_000_000) / 100_000.0;
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or
+     * -1 if the JVM can't tell.
+     *
+     * @return the number of bytes allocated by the current thread.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Runs a benchmark and prints its throughput and allocation rate.
+     *
+     * The throughput is the best of the measured rounds and the allocation
+     * rate is the average of all of them.
+     *
+     * @param name the name of the benchmark.
+     * @param workload the code to be measured.
+     */
+    static void measure(String name, Workload workload) {
+        double result = 0.0;
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            result += workload.run(ROUND_OPERATIONS);
+        }
+
+        double best = 0.0;
+        long allocatedBefore = allocatedBytes();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            result += workload.run(ROUND_OPERATIONS);
+            long elapsed = System.nanoTime() - start;
+            best = Math.max(best, ROUND_OPERATIONS / (elapsed / 1e9));
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        sink = result;
+
+        if (allocatedBefore < 0) {
+            System.out.printf("  %-24s %,14.0f ops/s%n", name, best);
+        } else {
+            System.out.printf("  %-24s %,14.0f ops/s %10.1f B/op%n", name, best,
+                    (double) allocated / (MEASURED_ROUNDS * ROUND_OPERATIONS));
+        }
+    }
+
+    /**
+     * Measures the public operations of the model and the math behind them.
+     */
+    private static void benchModel() {
+        Random random = new Random(SEED);
+        double[] operands = new double[POOL_SIZE];
+        double[] unrounded = new double[POOL_SIZE];
+        char[] operations = new char[POOL_SIZE];
+        int[] digits = new int[POOL_SIZE];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            operands[i] = randomOperand(random);
+            operations[i] = OPERATIONS[random.nextInt(OPERATIONS.length)];
+            digits[i] = random.nextInt(10);
+        }
+        for (int i = 0; i < POOL_SIZE; i++) {
+            unrounded[i] = operands[i] / (1 + random.nextInt(1000));
+        }
+
+        int mask = POOL_SIZE - 1;
+        CalculatorModel model = new CalculatorModel();
+
+        System.out.println("model:");
+
+        measure("insertNumber", n -> {
+            for (int i = 0; i < n; i++) {
+                // New number every eight digits
+                if ((i & 7) == 0) {
+                    model.clean();
+                }
+                model.insertNumber(digits[i & mask]);
+            }
+            return model.getResultDisplay().length();
+        });
+
+        measure("insertDot", n -> {
+            for (int i = 0; i < n; i++) {
+                model.clean();
+                model.insertNumber(digits[i & mask]);
+                model.insertDot();
+            }
+            return model.getResultDisplay().length();
+        });
+
+        measure("switchSign", n -> {
+            model.reset();
+            model.insertNumber(7);
+            model.insertDot();
+            model.insertNumber(5);
+            for (int i = 0; i < n; i++) {
+                model.switchSign();
+            }
+            return model.getResultDisplay().length();
+        });
+
+        measure("setOperation", n -> {
+            for (int i = 0; i < n; i++) {
+                // Chains of four operations
+                if ((i & 3) == 0) {
+                    model.reset();
+                }
+                model.insertNumber(1 + digits[i & mask] % 9);
+                model.setOperation(operations[i & mask]);
+            }
+            return model.getResultDisplay().length();
+        });
+
+        measure("calculate", n -> {
+            for (int i = 0; i < n; i++) {
+                model.reset();
+                model.insertNumber(1 + digits[i & mask] % 9);
+                model.insertNumber(digits[(i + 1) & mask]);
+                model.setOperation(operations[i & mask]);
+                model.insertNumber(1 + digits[(i + 2) & mask] % 9);
+                model.calculate();
+            }
+            return model.getResultDisplay().length();
+        });
+
+        measure("doTheMath", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += CalculatorModel.doTheMath(operations[i & mask],
+                        operands[i & mask], operands[(i + 1) & mask] + 1.0);
+            }
+            return acc;
+        });
+
+        measure("round", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += CalculatorPolicy.DEFAULT.round(unrounded[i & mask]);
+            }
+            return acc;
+        });
+
+        // Other policies must cost the same
+        CalculatorPolicy even = new CalculatorPolicy(12, 2,
+                RoundingMode.HALF_EVEN);
+        measure("round HALF_EVEN", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += even.round(unrounded[i & mask]);
+            }
+            return acc;
+        });
+
+        CalculatorPolicy floor = new CalculatorPolicy(12, 3,
+                RoundingMode.FLOOR);
+        measure("round FLOOR", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += floor.round(unrounded[i & mask]);
+            }
+            return acc;
+        });
+    }
+
+    /**
+     * Compares the table-driven dispatch of the operations
+     * (CalculatorOperation) with the char switch it replaced, on the four
+     * basic operations, and measures the scientific functions.
+     */
+    private static void benchDispatch() {
+        Random random = new Random(SEED);
+        double[] operands = new double[POOL_SIZE];
+        char[] operations = new char[POOL_SIZE];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            operands[i] = randomOperand(random) + 1.0;
+            operations[i] = OPERATIONS[random.nextInt(OPERATIONS.length)];
+        }
+
+        int mask = POOL_SIZE - 1;
+
+        System.out.println("dispatch:");
+
+        measure("char switch", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += switchMath(operations[i & mask], operands[i & mask],
+                        operands[(i + 1) & mask]);
+            }
+            return acc;
+        });
+
+        measure("operation table", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += CalculatorModel.doTheMath(operations[i & mask],
+                        operands[i & mask], operands[(i + 1) & mask]);
+            }
+            return acc;
+        });
+
+        CalculatorOperation[] functions = {CalculatorOperation.SQRT,
+            CalculatorOperation.LOG, CalculatorOperation.SIN};
+        measure("functions", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += CalculatorModel.doTheMath(functions[i % 3],
+                        operands[i & mask]);
+            }
+            return acc;
+        });
+    }
+
+    /**
+     * The dispatch of the basic operations before CalculatorOperation: a
+     * switch over the char of the operation.
+     *
+     * @param op a char ('+', '-', '×', or '÷') indicating the math operation to
+     * be calculated.
+     * @param v1 the first operand.
+     * @param v2 the second operand.
+     * @return the result of the mathematical operation.
+     */
+    private static double switchMath(char op, double v1, double v2) {
+        double result = 0.0;
+
+        switch (op) {
+            case '+':
+                result = v1 + v2;
+                break;
+            case '-':
+                result = v1 - v2;
+                break;
+            case '×':
+                result = v1 * v2;
+                break;
+            case '÷':
+                if (v2 == 0.0) {
+                    throw new ArithmeticException("Division by 0");
+                }
+                result = v1 / v2;
+                break;
+        }
+
+        return CalculatorPolicy.DEFAULT.round(result);
+    }
+
+    /**
+     * Compares formatting results for the display with CalculatorFormatter
+     * against Double.toString and DecimalFormat.
+     */
+    private static void benchFormat() {
+        Random random = new Random(SEED);
+        double[] results = new double[POOL_SIZE];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            results[i] = CalculatorPolicy.DEFAULT.round(randomOperand(random)
+                    / (1 + random.nextInt(1000)));
+        }
+
+        int mask = POOL_SIZE - 1;
+
+        System.out.println("format:");
+
+        measure("Double.toString", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += Double.toString(results[i & mask]).length();
+            }
+            return acc;
+        });
+
+        DecimalFormat decimalFormat = new DecimalFormat("0.#####");
+        measure("DecimalFormat", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += decimalFormat.format(results[i & mask]).length();
+            }
+            return acc;
+        });
+
+        char[] buffer = new char[CalculatorFormatter.MAX_CHARS];
+        measure("CalculatorFormatter", n -> {
+            double acc = 0.0;
+            for (int i = 0; i < n; i++) {
+                acc += CalculatorFormatter.format(results[i & mask],
+                        CalculatorPolicy.DEFAULT, buffer, 0);
+            }
+            return acc;
+        });
+    }
+
+    /**
+     * Compares applying an operation to many operands with the bulk API and
+     * with the scalar doTheMath in a loop.
+     */
+    private static void benchBulk() {
+        Random random = new Random(SEED);
+        double[] values = new double[ROUND_OPERATIONS];
+        double[] rates = new double[ROUND_OPERATIONS];
+        double[] out = new double[ROUND_OPERATIONS];
+
+        for (int i = 0; i < ROUND_OPERATIONS; i++) {
+            values[i] = randomOperand(random);
+            rates[i] = 1.0 + random.nextInt(100) / 100.0;
+        }
+
+        System.out.println("bulk:");
+
+        measure("scalar loop × 1.21", n -> {
+            for (int i = 0; i < n; i++) {
+                out[i] = CalculatorModel.doTheMath('×', values[i], 1.21);
+            }
+            return out[n - 1];
+        });
+
+        measure("bulk × 1.21", n -> {
+            CalculatorModel.doTheMath('×', values, 1.21, out, false);
+            return out[n - 1];
+        });
+
+        measure("bulk × 1.21 parallel", n -> {
+            CalculatorModel.doTheMath('×', values, 1.21, out, true);
+            return out[n - 1];
+        });
+
+        measure("scalar loop ÷ array", n -> {
+            for (int i = 0; i < n; i++) {
+                out[i] = CalculatorModel.doTheMath('÷', values[i], rates[i]);
+            }
+            return out[n - 1];
+        });
+
+        measure("bulk ÷ array", n -> {
+            CalculatorModel.doTheMath('÷', values, rates, out, false);
+            return out[n - 1];
+        });
+
+        measure("bulk ÷ array parallel", n -> {
+            CalculatorModel.doTheMath('÷', values, rates, out, true);
+            return out[n - 1];
+        });
+    }
+
+    /**
+     * Compares the double and arbitrary-precision modes of the model on the
+     * same operations.
+     */
+    private static void benchPrecision() {
+        Random random = new Random(SEED);
+        String[] operands = new String[POOL_SIZE];
+        char[] operations = new char[POOL_SIZE];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            operands[i] = String.valueOf(randomOperand(random) + 1.0);
+            operations[i] = OPERATIONS[random.nextInt(OPERATIONS.length)];
+        }
+
+        int mask = POOL_SIZE - 1;
+
+        System.out.println("precision:");
+
+        for (MathContext mc : new MathContext[]{null, MathContext.DECIMAL64,
+            MathContext.DECIMAL128, new MathContext(50)}) {
+            CalculatorModel model = new CalculatorModel();
+            model.setMathContext(mc);
+
+            measure((mc == null) ? "double" : "decimal " + mc.getPrecision(),
+                    n -> {
+                        for (int i = 0; i < n; i++) {
+                            model.reset();
+                            type(model, operands[i & mask]);
+                            model.setOperation(operations[i & mask]);
+                            type(model, operands[(i + 1) & mask]);
+                            model.calculate();
+                        }
+                        return model.getResultDisplay().length();
+                    });
+        }
+    }
+
+    /**
+     * Types a number in the model, key by key.
+     *
+     * @param model the model.
+     * @param number the number to be typed.
+     */
+    private static void type(CalculatorModel model, String number) {
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '.') {
+                model.insertDot();
+            } else {
+                model.insertNumber(c - '0');
+            }
+        }
+    }
+
+    /**
+     * Measures the shared calculator service with many threads typing in many
+     * sessions at the same time, against a baseline that guards all the
+     * sessions with a single global lock.
+     *
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    private static void benchService() throws InterruptedException {
+        int sessions = 10_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Random random = new Random(SEED);
+        String[] ids = new String[sessions];
+        String[] keys = new String[POOL_SIZE];
+
+        for (int i = 0; i < sessions; i++) {
+            ids[i] = "session-" + i;
+        }
+        for (int i = 0; i < POOL_SIZE; i++) {
+            keys[i] = randomSession(random);
+        }
+
+        System.out.printf("service: %d sessions%n", sessions);
+
+        for (int threads : IntStream.of(1, cores, cores * 4).distinct()
+                .toArray()) {
+            CalculatorService service = new CalculatorService();
+            Object globalLock = new Object();
+            CalculatorService locked = new CalculatorService();
+
+            double striped = runService(threads, ids, keys, service::press);
+            double global = runService(threads, ids, keys, (id, k) -> {
+                synchronized (globalLock) {
+                    return locked.press(id, k);
+                }
+            });
+
+            System.out.printf("  %3d threads: %,12.0f requests/s "
+                    + "(global lock: %,12.0f requests/s)%n",
+                    threads, striped, global);
+        }
+    }
+
+    /**
+     * Runs requests against a service from several threads at the same time.
+     *
+     * @param threads number of threads.
+     * @param ids ids of the sessions.
+     * @param keys pool of keys to be typed.
+     * @param service the service.
+     * @return the number of requests per second (best of several rounds).
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    private static double runService(int threads, String[] ids, String[] keys,
+            BiFunction<String, String, String> service)
+            throws InterruptedException {
+        int requests = 200_000;
+        double best = 0.0;
+
+        // Warm up with the first round, keep the best of the rest
+        for (int round = 0; round < 4; round++) {
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(SEED + t);
+                new Thread(() -> {
+                    try {
+                        start.await();
+                        int length = 0;
+                        for (int i = 0; i < requests / threads; i++) {
+                            length += service.apply(
+                                    ids[random.nextInt(ids.length)],
+                                    keys[i & (POOL_SIZE - 1)]).length();
+                        }
+                        sink = length;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            double rate = requests / ((System.nanoTime() - begin) / 1e9);
+            if (round > 0) {
+                best = Math.max(best, rate);
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Load test of the calculator server over the loopback interface: many
+     * concurrent connections, each one sending its requests pipelined.
+     *
+     * @param connections number of concurrent connections.
+     * @throws IOException if the server can't be started or a connection
+     * fails.
+     * @throws InterruptedException if interrupted while waiting for clients.
+     */
+    private static void benchServer(int connections)
+            throws IOException, InterruptedException {
+        int pipeline = 100;
+        int clientThreads = Runtime.getRuntime().availableProcessors() * 2;
+        Random random = new Random(SEED);
+        String[] requests = new String[POOL_SIZE];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            requests[i] = (i % 4 == 0)
+                    ? "E " + randomOperand(random) + "*(" + randomOperand(random)
+                    + "+" + randomOperand(random) + ")"
+                    : "K " + randomSession(random);
+        }
+
+        System.out.printf("server: %d connections, %d pipelined requests "
+                + "each%n", connections, pipeline);
+
+        try (CalculatorServer server = new CalculatorServer(0)) {
+            server.start();
+
+            ExecutorService clients = Executors.newFixedThreadPool(
+                    clientThreads);
+            Socket[] sockets = new Socket[connections];
+            long begin = System.nanoTime();
+
+            try {
+                for (int c = 0; c < connections; c++) {
+                    sockets[c] = new Socket(InetAddress.getLoopbackAddress(),
+                            server.getPort());
+                }
+                long connected = System.nanoTime();
+
+                Future<?>[] results = new Future<?>[clientThreads];
+                for (int t = 0; t < clientThreads; t++) {
+                    int first = t;
+                    results[t] = clients.submit(() -> {
+                        // Every client thread drives a share of the sockets
+                        for (int c = first; c < connections;
+                                c += clientThreads) {
+                            pipelineRequests(sockets[c], requests, c, pipeline);
+                        }
+                        return null;
+                    });
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+
+                long end = System.nanoTime();
+                System.out.printf("  connect: %,10.0f connections/s%n",
+                        connections / ((connected - begin) / 1e9));
+                System.out.printf("  serve:   %,10.0f requests/s%n",
+                        (double) connections * pipeline
+                        / ((end - connected) / 1e9));
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                clients.shutdown();
+                for (Socket socket : sockets) {
+                    if (socket != null) {
+                        socket.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends some requests through a connection without waiting for the
+     * responses, and then reads all of them.
+     *
+     * @param socket the connection.
+     * @param requests pool of requests.
+     * @param first index of the first request of the pool to be sent.
+     * @param count number of requests.
+     * @throws IOException if the connection fails.
+     */
+    private static void pipelineRequests(Socket socket, String[] requests,
+            int first, int count) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8));
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+
+        for (int i = 0; i < count; i++) {
+            out.write(requests[(first + i) & (POOL_SIZE - 1)]);
+            out.write('\n');
+        }
+        out.flush();
+
+        for (int i = 0; i < count; i++) {
+            if (in.readLine() == null) {
+                throw new IOException("Connection closed by the server");
+            }
+        }
+    }
+
+    /**
+     * Compares replaying a tape file by memory-mapping it against reading it
+     * line by line with a BufferedReader, and against replaying its raw bytes
+     * with the key automaton.
+     *
+     * @throws IOException if the temporary tape can't be written or read.
+     */
+    private static void benchTape() throws IOException {
+        int sessions = 2_000_000;
+        Path tape = Files.createTempFile("calculator", ".tape");
+
+        try {
+            Files.write(tape, randomTape(sessions)
+                    .getBytes(StandardCharsets.US_ASCII));
+            double megabytes = Files.size(tape) / 1e6;
+
+            System.out.printf("tape: %d sessions, %.1f MB%n", sessions,
+                    megabytes);
+
+            double bestReader = 0.0;
+            double bestMapped = 0.0;
+            double bestAutomaton = 0.0;
+
+            // Warm up with the first round, keep the best of the rest
+            for (int round = 0; round < 4; round++) {
+                CalculatorBatch batch = new CalculatorBatch();
+                long start = System.nanoTime();
+                try (BufferedReader in = Files.newBufferedReader(tape,
+                        StandardCharsets.US_ASCII)) {
+                    batch.run(in, NullWriter.INSTANCE);
+                }
+                double reader = (System.nanoTime() - start) / 1e9;
+
+                CalculatorTapeReader mapped = new CalculatorTapeReader(
+                        new CalculatorModel());
+                start = System.nanoTime();
+                mapped.replay(tape, NullWriter.INSTANCE);
+                double map = (System.nanoTime() - start) / 1e9;
+
+                CalculatorKeyAutomaton automaton = new CalculatorKeyAutomaton();
+                start = System.nanoTime();
+                try (InputStream in = Files.newInputStream(tape)) {
+                    automaton.replay(in, NullWriter.INSTANCE);
+                }
+                double compiled = (System.nanoTime() - start) / 1e9;
+
+                if (round > 0) {
+                    bestReader = Math.max(bestReader, sessions / reader);
+                    bestMapped = Math.max(bestMapped, sessions / map);
+                    bestAutomaton = Math.max(bestAutomaton,
+                            sessions / compiled);
+                }
+            }
+
+            System.out.printf("  %-14s %,12.0f sessions/s %8.1f MB/s%n",
+                    "BufferedReader", bestReader,
+                    bestReader * megabytes / sessions);
+            System.out.printf("  %-14s %,12.0f sessions/s %8.1f MB/s%n",
+                    "mmap", bestMapped, bestMapped * megabytes / sessions);
+            System.out.printf("  %-14s %,12.0f sessions/s %8.1f MB/s%n",
+                    "automaton", bestAutomaton,
+                    bestAutomaton * megabytes / sessions);
+        } finally {
+            Files.delete(tape);
+        }
+    }
+
+    /**
+     * Measures how the parallel batch mode scales with the number of worker
+     * threads, from one up to the number of available processors.
+     *
+     * @throws IOException never (the tape is in memory).
+     */
+    private static void benchParallelScaling() throws IOException {
+        String tape = randomTape(1_000_000);
+        int cores = Runtime.getRuntime().availableProcessors();
+        double base = 0.0;
+
+        System.out.printf("parallel: %d sessions, %d processors%n",
+                1_000_000, cores);
+
+        for (int threads = 1; threads <= cores;
+                threads = (threads == cores) ? cores + 1
+                        : Math.min(threads * 2, cores)) {
+            double best = 0.0;
+
+            // Warm up with the first round, keep the best of the rest
+            for (int round = 0; round < 4; round++) {
+                CalculatorBatch batch = new CalculatorBatch();
+                long start = System.nanoTime();
+                batch.runParallel(new BufferedReader(new StringReader(tape)),
+                        NullWriter.INSTANCE, threads);
+                double rate = batch.getSessions()
+                        / ((System.nanoTime() - start) / 1e9);
+                if (round > 0) {
+                    best = Math.max(best, rate);
+                }
+            }
+
+            if (threads == 1) {
+                base = best;
+            }
+            System.out.printf("  %3d threads: %,12.0f sessions/s  x%.2f%n",
+                    threads, best, best / base);
+        }
+    }
+
+    /**
+     * Measures how long the calculator takes to show its window, launching
+     * it with "--startup-probe" several times, with and without the
+     * class-data-sharing archive created by "ant cds" (if it exists).
+     *
+     * The jar, the archive and the number of launches are given by the
+     * system properties "bench.jar", "bench.cds" and "bench.launches". It
+     * needs a display, so it only runs when selected explicitly.
+     *
+     * @throws IOException if the calculator can't be launched.
+     * @throws InterruptedException if interrupted while waiting for it.
+     */
+    private static void benchStartup()
+            throws IOException, InterruptedException {
+        String jar = System.getProperty("bench.jar", "dist/Calculator.jar");
+        String archive = System.getProperty("bench.cds", "dist/Calculator.jsa");
+        int launches = Integer.getInteger("bench.launches", 10);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString();
+
+        System.out.printf("startup: %d launches of %s%n", launches, jar);
+
+        measureStartup("default CDS", launches, java, "-jar", jar,
+                "--startup-probe");
+        if (Files.exists(Paths.get(archive))) {
+            measureStartup("application CDS", launches, java,
+                    "-XX:SharedArchiveFile=" + archive, "-jar", jar,
+                    "--startup-probe");
+        }
+        measureStartup("no CDS", launches, java, "-Xshare:off", "-jar", jar,
+                "--startup-probe");
+    }
+
+    /**
+     * Launches a command several times and prints the best and median times
+     * it reports ("Startup: N ms") and the best and median times until it
+     * exits.
+     *
+     * @param name the name of the configuration.
+     * @param launches the number of launches.
+     * @param command the command.
+     * @throws IOException if the command can't be launched.
+     * @throws InterruptedException if interrupted while waiting for it.
+     */
+    private static void measureStartup(String name, int launches,
+            String... command) throws IOException, InterruptedException {
+        long[] shown = new long[launches];
+        long[] exited = new long[launches];
+
+        for (int i = 0; i < launches; i++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true).start();
+
+            String output;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    process.getInputStream(), StandardCharsets.UTF_8))) {
+                StringBuilder sb = new StringBuilder();
+                for (String line; (line = in.readLine()) != null;) {
+                    sb.append(line).append('\n');
+                }
+                output = sb.toString();
+            }
+            int status = process.waitFor();
+            exited[i] = (System.nanoTime() - start) / 1_000_000;
+
+            Matcher m = Pattern.compile("Startup: (\\d+) ms").matcher(output);
+            if (status != 0 || !m.find()) {
+                System.out.printf("  %-16s failed (exit status %d):%n%s", name,
+                        status, output);
+                return;
+            }
+            shown[i] = Long.parseLong(m.group(1));
+        }
+
+        Arrays.sort(shown);
+        Arrays.sort(exited);
+        System.out.printf("  %-16s shown in %5d ms (median %5d ms), "
+                + "exited in %5d ms (median %5d ms)%n", name, shown[0],
+                shown[launches / 2], exited[0], exited[launches / 2]);
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args names of the benchmarks to run (all the headless ones if
+     * empty).
+     * @throws IOException if a benchmark fails.
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        if (selected(args, "model")) {
+            benchModel();
+        }
+        if (selected(args, "dispatch")) {
+            benchDispatch();
+        }
+        if (selected(args, "bulk")) {
+            benchBulk();
+        }
+        if (selected(args, "format")) {
+            benchFormat();
+        }
+        if (selected(args, "precision")) {
+            benchPrecision();
+        }
+        if (selected(args, "service")) {
+            benchService();
+        }
+        if (selected(args, "server")) {
+            benchServer(Integer.getInteger("bench.connections", 1000));
+        }
+        if (selected(args, "tape")) {
+            benchTape();
+        }
+        if (selected(args, "parallel")) {
+            benchParallelScaling();
+        }
+        if (Arrays.asList(args).contains("startup")) {
+            benchStartup();
+        }
+    }
+
+    /**
+     * Tells if a benchmark has been selected in the command line.
+     *
+     * @param args the command line arguments.
+     * @param name the name of the benchmark.
+     * @return true if the benchmark must be run.
+     */
+    private static boolean selected(String[] args, String name) {
+        if (args.length == 0) {
+            return true;
+        }
+        for (String arg : args) {
+            if (arg.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A piece of code to be measured.
+     */
+    @FunctionalInterface
+    interface Workload {
+
+        /**
+         * Runs the given number of operations.
+         *
+         * @param operations number of operations to be run.
+         * @return a value depending on the results, to be consumed.
+         */
+        double run(int operations);
+    }
+
+    /**
+     * A Writer that discards everything, so the benchmarks don't measure the
+     * output.
+     */
+    private final static class NullWriter extends Writer {
+
+        private final static NullWriter INSTANCE = new NullWriter();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void write(String str) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
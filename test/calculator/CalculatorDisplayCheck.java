@@ -0,0 +1,244 @@
+package calculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Checks that the way the results are shown doesn't change what the keys
+ * do: replays every session of a tape on a model that shows the results like
+ * older versions (with Double.toString, see CalculatorModel.setLegacyDisplay)
+ * and on one that shows them in plain notation, and checks both show the
+ * same number (or both are in error mode) after every key.
+ *
+ * Digits typed after switching the sign of a result edit the text shown,
+ * which is not the same in both ("-5.0" and "-5"), so a session is only
+ * compared up to the first digit or dot typed while the texts differ.
+ *
+ * The outputs recorded with an older version can be given too, and then the
+ * legacy display must reproduce them exactly, line by line.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorDisplayCheck {
+
+    /**
+     * Maximum number of differences printed.
+     */
+    private final static int MAX_PRINTED = 10;
+
+    /**
+     * Keys of the random sessions (with many sign switches, which is when a
+     * result gets edited).
+     */
+    private final static String RANDOM_KEYS = "0123456789.ss+-*/==c^@%";
+
+    private final CalculatorModel legacy = new CalculatorModel();
+    private final CalculatorModel current = new CalculatorModel();
+
+    private long sessions;
+    private long edited;
+    private long differences;
+
+    /**
+     * Constructor for class CalculatorDisplayCheck.
+     */
+    CalculatorDisplayCheck() {
+        legacy.setLegacyDisplay(true);
+    }
+
+    /**
+     * Replays a session on both models and compares their results.
+     *
+     * @param keys the keys of the session.
+     * @param expected the output recorded with an older version, or null.
+     * @return a description of the difference, or null if there is none.
+     */
+    String check(String keys, String expected) {
+        legacy.reset();
+        legacy.memoryClear();
+        current.reset();
+        current.memoryClear();
+        sessions++;
+
+        String difference = null;
+        boolean compared = true;
+        for (int i = 0; i < keys.length(); i++) {
+            char key = keys.charAt(i);
+            boolean edit = isEdit(key) && !legacy.getResultDisplay()
+                    .equals(current.getResultDisplay());
+
+            CalculatorBatch.applyKey(legacy, key);
+            CalculatorBatch.applyKey(current, key);
+
+            if (!compared || difference != null) {
+                continue;
+            }
+            String old = legacy.getResultDisplay();
+            String now = current.getResultDisplay();
+            if (sameNumber(old, now)) {
+                continue;
+            }
+            if (edit) {
+                // Different texts were edited: the rest can't be compared
+                compared = false;
+                edited++;
+            } else {
+                difference = "after key " + (i + 1) + ", legacy display "
+                        + old + ", display " + now;
+            }
+        }
+
+        String old = legacy.getResultDisplay();
+        if (expected != null && !expected.equals(old)) {
+            difference = "recorded " + expected + ", legacy display " + old;
+        }
+
+        if (difference != null) {
+            differences++;
+            return "\"" + keys + "\": " + difference;
+        }
+        return null;
+    }
+
+    /**
+     * Tells if a key edits the number on the display (if it doesn't start a
+     * new one).
+     *
+     * @param key the key.
+     * @return true for the digits and the dot.
+     */
+    private static boolean isEdit(char key) {
+        return (key >= '0' && key <= '9') || key == '.' || key == ',';
+    }
+
+    /**
+     * Tells if two result displays show the same number.
+     *
+     * @param a a result display.
+     * @param b the other result display.
+     * @return true if both show the same number (the sign of 0 included) or
+     * both show "Error".
+     */
+    private static boolean sameNumber(String a, String b) {
+        if (a.equals("Error") || b.equals("Error")) {
+            return a.equals(b);
+        }
+        return Double.compare(Double.parseDouble(a),
+                Double.parseDouble(b)) == 0;
+    }
+
+    /**
+     * Returns the number of sessions checked so far.
+     *
+     * @return the number of sessions checked so far.
+     */
+    long getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the number of sessions only compared up to an edited result so
+     * far.
+     *
+     * @return the number of sessions with an edited result so far.
+     */
+    long getEdited() {
+        return edited;
+    }
+
+    /**
+     * Returns the number of sessions that differ so far.
+     *
+     * @return the number of sessions that differ so far.
+     */
+    long getDifferences() {
+        return differences;
+    }
+
+    /**
+     * Checks a tape (or random sessions) from the command line, and exits
+     * with status 1 if any session differs.
+     *
+     * @param args the command line arguments: the tape file (random sessions
+     * if there is none), "--expected file" with the outputs recorded with an
+     * older version and "--sessions n" with the number of random sessions
+     * (1,000,000 by default).
+     * @throws IOException if the files can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String tape = null;
+        String expected = null;
+        int randomSessions = 1_000_000;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--expected") && i + 1 < args.length) {
+                expected = args[++i];
+            } else if (args[i].equals("--sessions") && i + 1 < args.length) {
+                randomSessions = Integer.parseInt(args[++i]);
+            } else {
+                tape = args[i];
+            }
+        }
+
+        CalculatorDisplayCheck check = new CalculatorDisplayCheck();
+        long start = System.nanoTime();
+
+        if (tape == null) {
+            Random random = new Random(42);
+            StringBuilder sb = new StringBuilder();
+            for (int s = 0; s < randomSessions; s++) {
+                sb.setLength(0);
+                int length = 1 + random.nextInt(24);
+                for (int i = 0; i < length; i++) {
+                    sb.append(RANDOM_KEYS.charAt(
+                            random.nextInt(RANDOM_KEYS.length())));
+                }
+                report(check, check.check(sb.toString(), null));
+            }
+        } else {
+            try (BufferedReader keys = Files.newBufferedReader(
+                    Paths.get(tape), StandardCharsets.UTF_8);
+                    BufferedReader outputs = (expected == null) ? null
+                            : Files.newBufferedReader(Paths.get(expected),
+                                    StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = keys.readLine()) != null) {
+                    String output = (outputs == null) ? null
+                            : outputs.readLine();
+                    if (outputs != null && output == null) {
+                        System.out.println("The recorded outputs end at "
+                                + "session " + (check.getSessions() + 1));
+                        System.exit(1);
+                    }
+                    report(check, check.check(line, output));
+                }
+            }
+        }
+
+        System.out.printf("%,d sessions checked in %.1f s (%,d up to an "
+                + "edited result): %,d differences%n", check.getSessions(),
+                (System.nanoTime() - start) / 1e9, check.getEdited(),
+                check.getDifferences());
+        if (check.getDifferences() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints a difference (only the first ones).
+     *
+     * @param check the check.
+     * @param difference the description of the difference, or null.
+     */
+    private static void report(CalculatorDisplayCheck check,
+            String difference) {
+        if (difference != null && check.getDifferences() <= MAX_PRINTED) {
+            System.out.println("Difference in session " + check.getSessions()
+                    + ": " + difference);
+        }
+    }
+}
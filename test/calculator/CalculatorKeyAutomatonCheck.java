@@ -0,0 +1,122 @@
+package calculator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks CalculatorKeyAutomaton against CalculatorModel, which is the
+ * reference: every sequence of keys of an alphabet up to a length, and then
+ * long random sessions, must give the same result display.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorKeyAutomatonCheck {
+
+    /**
+     * Checks the automaton against the model: every sequence of keys of an
+     * alphabet up to a length, and then random sessions, must give the same
+     * result display.
+     *
+     * @param alphabet the keys of the sequences.
+     * @param maxLength the maximum length of the sequences.
+     * @param randomSessions the number of random sessions.
+     * @return the number of sequences checked.
+     * @throws IllegalStateException with the first sequence that differs.
+     */
+    static long verify(String alphabet, int maxLength, int randomSessions)
+            throws IllegalStateException {
+        CalculatorKeyAutomaton automaton = new CalculatorKeyAutomaton();
+        CalculatorModel model = new CalculatorModel();
+        char[] sequence = new char[maxLength];
+        int[] counters = new int[maxLength];
+        long checked = 0;
+
+        // Every sequence, in order of length and then of keys
+        for (int length = 1; length <= maxLength; length++) {
+            Arrays.fill(counters, 0, length, 0);
+            while (true) {
+                for (int i = 0; i < length; i++) {
+                    sequence[i] = alphabet.charAt(counters[i]);
+                }
+                compare(automaton, model, new String(sequence, 0, length));
+                checked++;
+
+                int i = length - 1;
+                while (i >= 0 && ++counters[i] == alphabet.length()) {
+                    counters[i--] = 0;
+                }
+                if (i < 0) {
+                    break;
+                }
+            }
+        }
+
+        // Long random sessions reach the limits of the display
+        Random random = new Random(42);
+        for (int s = 0; s < randomSessions; s++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                sb.append((random.nextInt(3) == 0)
+                        ? alphabet.charAt(random.nextInt(alphabet.length()))
+                        : (char) ('0' + random.nextInt(10)));
+            }
+            compare(automaton, model, sb.toString());
+            checked++;
+        }
+
+        return checked;
+    }
+
+    /**
+     * Replays a sequence of keys on the automaton and the model and checks
+     * both give the same result display.
+     *
+     * @param automaton the automaton.
+     * @param model the model.
+     * @param keys the sequence of keys.
+     * @throws IllegalStateException if the results differ.
+     */
+    private static void compare(CalculatorKeyAutomaton automaton,
+            CalculatorModel model, String keys) throws IllegalStateException {
+        automaton.reset();
+        model.reset();
+        model.memoryClear();
+
+        for (int i = 0; i < keys.length(); i++) {
+            automaton.key(keys.charAt(i));
+            CalculatorBatch.applyKey(model, keys.charAt(i));
+        }
+
+        String expected = model.getResultDisplay();
+        String actual = automaton.getResultDisplay();
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("\"" + keys + "\": model "
+                    + expected + ", automaton " + actual);
+        }
+    }
+
+    /**
+     * Checks the automaton against the model from the command line, and
+     * exits with status 1 if they differ.
+     *
+     * @param args the command line arguments: the maximum length of the
+     * sequences (6 by default).
+     */
+    public static void main(String[] args) {
+        int maxLength = (args.length > 0) ? Integer.parseInt(args[0]) : 6;
+        String alphabet = "059.s+-*/=c^@%pngx";
+
+        long start = System.nanoTime();
+        try {
+            long checked = verify(alphabet, maxLength, 1_000_000);
+            System.out.printf("%d states, %,d sequences checked in %.1f s: "
+                    + "no differences%n",
+                    CalculatorKeyAutomaton.getStateCount(), checked,
+                    (System.nanoTime() - start) / 1e9);
+        } catch (IllegalStateException e) {
+            System.out.println("Difference found: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package calculator;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Checks the fast rounding of CalculatorPolicy against the reference one:
+ * rounding the decimal representation given by Double.toString with
+ * BigDecimal.setScale, which is how every result was rounded before.
+ *
+ * Random values are rounded with policies of every scale and rounding mode
+ * and must give exactly the same double (or both fail). Most of the values
+ * are built to be hard: halves and integers of the scale, a few ulps away
+ * from them, values with exactly as many decimals as the scale and values
+ * around the limit of the fast path.
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorRoundingCheck {
+
+    /**
+     * Maximum number of differences printed.
+     */
+    private final static int MAX_PRINTED = 10;
+
+    private final Random random = new Random(42);
+
+    private long values;
+    private long differences;
+
+    /**
+     * Rounds a value with a policy and with the reference rounding, and
+     * compares both.
+     *
+     * @param policy the policy.
+     * @param value the value.
+     * @return a description of the difference, or null if there is none.
+     */
+    String check(CalculatorPolicy policy, double value) {
+        String actual;
+        String expected;
+
+        try {
+            actual = Double.toString(policy.round(value));
+        } catch (ArithmeticException e) {
+            actual = e.getClass().getSimpleName();
+        }
+        try {
+            expected = Double.toString(new BigDecimal(Double.toString(value))
+                    .setScale(policy.getResultScale(),
+                            policy.getRoundingMode())
+                    .doubleValue());
+        } catch (ArithmeticException e) {
+            expected = e.getClass().getSimpleName();
+        }
+
+        values++;
+        if (!actual.equals(expected)) {
+            differences++;
+            return policy + " rounds " + value + " to " + actual
+                    + " instead of " + expected;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a random value that is hard to round with a scale.
+     *
+     * @param scale the scale.
+     * @return the value.
+     */
+    double nextValue(int scale) {
+        double unit = Math.pow(10, -scale);
+        double magnitude = Math.pow(10, random.nextInt(18) - 3);
+        double value;
+
+        switch (random.nextInt(6)) {
+            case 0:
+                // Any value
+                value = random.nextDouble() * magnitude;
+                break;
+            case 1:
+                // A half of the scale
+                value = (Math.floor(random.nextDouble() * magnitude / unit)
+                        + 0.5) * unit;
+                break;
+            case 2:
+                // An integer of the scale
+                value = Math.floor(random.nextDouble() * magnitude / unit)
+                        * unit;
+                break;
+            case 3:
+                // Exactly as many decimals as the scale
+                value = new BigDecimal(Math.floor(random.nextDouble()
+                        * magnitude / unit)).scaleByPowerOfTen(-scale)
+                        .doubleValue();
+                break;
+            case 4:
+                // A few ulps away from a half or an integer
+                value = (Math.floor(random.nextDouble() * magnitude / unit)
+                        + 0.5 * random.nextInt(2)) * unit;
+                int ulps = random.nextInt(41) - 20;
+                for (int i = 0; i < Math.abs(ulps); i++) {
+                    value = (ulps > 0) ? Math.nextUp(value)
+                            : Math.nextDown(value);
+                }
+                break;
+            default:
+                // Around the limit of the fast path (10^12 units)
+                value = (1e12 + random.nextInt(2001) - 1000
+                        + random.nextDouble()) * unit;
+        }
+
+        return random.nextBoolean() ? -value : value;
+    }
+
+    /**
+     * Returns the number of values checked so far.
+     *
+     * @return the number of values checked so far.
+     */
+    long getValues() {
+        return values;
+    }
+
+    /**
+     * Returns the number of values rounded differently so far.
+     *
+     * @return the number of values rounded differently so far.
+     */
+    long getDifferences() {
+        return differences;
+    }
+
+    /**
+     * Checks the rounding from the command line, and exits with status 1 if
+     * any value is rounded differently.
+     *
+     * @param args the command line arguments: the number of values checked
+     * for every policy (100,000 by default).
+     */
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        CalculatorRoundingCheck check = new CalculatorRoundingCheck();
+        long start = System.nanoTime();
+
+        for (int scale = 0; scale <= CalculatorPolicy.MAX_RESULT_SCALE;
+                scale++) {
+            for (RoundingMode mode : RoundingMode.values()) {
+                CalculatorPolicy policy = new CalculatorPolicy(12, scale,
+                        mode);
+                for (int i = 0; i < count; i++) {
+                    String difference = check.check(policy,
+                            check.nextValue(scale));
+                    if (difference != null
+                            && check.getDifferences() <= MAX_PRINTED) {
+                        System.out.println("Difference: " + difference);
+                    }
+                }
+            }
+        }
+
+        System.out.printf("%,d values checked in %.1f s: %,d differences%n",
+                check.getValues(), (System.nanoTime() - start) / 1e9,
+                check.getDifferences());
+        if (check.getDifferences() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package calculator;
+
+import java.awt.Component;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Soak test of the view and the controller: types a long, seeded stream of
+ * random keys into the calculator and watches how it behaves over time.
+ *
+ * The keys are sent as KeyEvents to the key listener registered by the
+ * controller, on the event dispatch thread, at a steady rate and in small
+ * bursts (like a fast typist), so every handler runs and every view update
+ * and repaint is queued as with a real keyboard. The same seed always gives
+ * the same keys.
+ *
+ * Every window of time it records the latency percentiles of the handlers,
+ * how late the bursts run on the event dispatch thread (and how many of them
+ * are waiting), and the heap used after a garbage collection. The test fails
+ * (exit status 1) if the heap grows more than a limit after the warm-up
+ * window, if the p99 latency of the last window regresses more than a ratio
+ * against the first one after the warm-up, or if the event dispatch thread
+ * falls too far behind.
+ *
+ * It needs a display: run it under Xvfb on servers (xvfb-run ant soak).
+ *
+ * @author Andrés Salinas Lima {@literal <i52salia@uco.es>}
+ */
+final class CalculatorSoak {
+
+    /**
+     * Time between bursts of keys, in milliseconds.
+     */
+    private final static int TICK_MILLIS = 10;
+
+    /**
+     * Latency below which a p99 is never taken as a regression (the noise of
+     * the timer and the scheduler), in nanoseconds.
+     */
+    private final static long MIN_REGRESSION_NANOS = 100_000;
+
+    /**
+     * Capacity of the history of the calculator during the test, so it is
+     * full (and stops growing) by the end of the warm-up.
+     */
+    private final static int HISTORY_CAPACITY = 1000;
+
+    /*
+     * Codes of the keys that are not typed characters (released with the
+     * control key down).
+     */
+    private final static int UNDO = -KeyEvent.VK_Z;
+    private final static int REDO = -KeyEvent.VK_Y;
+    private final static int MEMORY_ADD = -KeyEvent.VK_P;
+    private final static int MEMORY_RECALL = -KeyEvent.VK_R;
+    private final static int CLEAN = -KeyEvent.VK_BACK_SPACE;
+
+    /**
+     * Keys of the scientific functions that can follow a result.
+     */
+    private final static String FUNCTION_KEYS = "@qv%liot";
+
+    private final Component source;
+    private final KeyListener listener;
+    private final Random random;
+
+    /*
+     * The settings of the test.
+     */
+    private int duration = 60;
+    private int window = 10;
+    private int rate = 2000;
+    private double maxHeapGrowth = 8.0;
+    private double maxLatencyRatio = 3.0;
+    private int maxLag = 500;
+
+    /*
+     * Keys of the current session not sent yet.
+     */
+    private int[] session = new int[0];
+    private int next;
+
+    /*
+     * Measures of the current window, only touched on the event dispatch
+     * thread.
+     */
+    private long[] latencies = new long[1 << 16];
+    private int count;
+    private long maxLagNanos;
+
+    /**
+     * Bursts posted to the event dispatch thread and not run yet.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+    private int maxQueued;
+
+    /**
+     * Constructor for class CalculatorSoak.
+     *
+     * @param source the component the key events come from.
+     * @param listener the key listener that receives the events.
+     * @param seed the seed of the random keys.
+     */
+    public CalculatorSoak(Component source, KeyListener listener, long seed) {
+        this.source = source;
+        this.listener = listener;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets how long the test runs and how often it takes its measures.
+     *
+     * @param seconds duration of the test, in seconds.
+     * @param windowSeconds duration of every window, in seconds (the first
+     * one is the warm-up).
+     */
+    public void setDuration(int seconds, int windowSeconds) {
+        if (windowSeconds <= 0 || seconds < 3 * windowSeconds) {
+            throw new IllegalArgumentException(
+                    "The test must last at least three windows");
+        }
+        duration = seconds;
+        window = windowSeconds;
+    }
+
+    /**
+     * Sets the number of keys typed per second.
+     *
+     * @param keysPerSecond the number of keys typed per second.
+     */
+    public void setRate(int keysPerSecond) {
+        if (keysPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        rate = keysPerSecond;
+    }
+
+    /**
+     * Sets the limits the test checks.
+     *
+     * @param heapGrowth maximum growth of the heap after the warm-up, in MB.
+     * @param latencyRatio maximum ratio between the p99 latency of the last
+     * window and the first one after the warm-up.
+     * @param lag maximum time a burst of keys can wait for the event dispatch
+     * thread, in milliseconds.
+     */
+    public void setLimits(double heapGrowth, double latencyRatio, int lag) {
+        maxHeapGrowth = heapGrowth;
+        maxLatencyRatio = latencyRatio;
+        maxLag = lag;
+    }
+
+    /**
+     * Runs the test, printing the measures of every window.
+     *
+     * @return true if the test passed, false if it failed.
+     * @throws InterruptedException if interrupted while running.
+     */
+    public boolean run() throws InterruptedException {
+        int windows = duration / window;
+        long keysPerTick = Math.max(1, (long) rate * TICK_MILLIS / 1000);
+        long ticksPerWindow = window * 1000L / TICK_MILLIS;
+
+        double baselineHeap = 0.0;
+        long baselineP99 = 0;
+        double heap = 0.0;
+        long p99 = 0;
+        long worstLag = 0;
+
+        System.out.printf("Soak test: %d s, %d keys/s, windows of %d s%n",
+                duration, rate, window);
+
+        long start = System.nanoTime();
+        long tick = start;
+
+        for (int w = 0; w < windows; w++) {
+            for (long t = 0; t < ticksPerWindow; t++) {
+                post(nextKeys((int) keysPerTick));
+
+                tick += TICK_MILLIS * 1_000_000L;
+                long sleep = tick - System.nanoTime();
+                if (sleep > 0) {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                }
+            }
+
+            long[] measures = closeWindow();
+            heap = usedHeap();
+            p99 = measures[2];
+            worstLag = Math.max(worstLag, measures[5]);
+
+            System.out.printf("%5d s %8d keys  p50 %6d us  p99 %6d us  "
+                    + "max %7d us  lag %5d ms  queued %3d  heap %6.1f MB%s%n",
+                    (System.nanoTime() - start) / 1_000_000_000L, measures[0],
+                    measures[1] / 1000, measures[2] / 1000,
+                    measures[3] / 1000, measures[5] / 1_000_000, measures[4],
+                    heap, (w == 0) ? "  (warm-up)" : "");
+
+            if (w == 1) {
+                baselineHeap = heap;
+                baselineP99 = p99;
+            }
+        }
+
+        boolean passed = true;
+
+        if (heap - baselineHeap > maxHeapGrowth) {
+            System.out.printf("FAILED: the heap grew %.1f MB (limit %.1f MB)%n",
+                    heap - baselineHeap, maxHeapGrowth);
+            passed = false;
+        }
+        if (p99 > MIN_REGRESSION_NANOS && p99 > maxLatencyRatio * baselineP99) {
+            System.out.printf("FAILED: the p99 latency went from %d us to %d "
+                    + "us (limit x%.1f)%n", baselineP99 / 1000, p99 / 1000,
+                    maxLatencyRatio);
+            passed = false;
+        }
+        if (worstLag > maxLag * 1_000_000L) {
+            System.out.printf("FAILED: the event dispatch thread fell %d ms "
+                    + "behind (limit %d ms)%n", worstLag / 1_000_000, maxLag);
+            passed = false;
+        }
+
+        if (passed) {
+            System.out.println("PASSED");
+        }
+        return passed;
+    }
+
+    /**
+     * Posts a burst of keys to the event dispatch thread.
+     *
+     * @param keys the keys (characters, or minus the key code of the keys
+     * released with the control key down).
+     */
+    private void post(int[] keys) {
+        long posted = System.nanoTime();
+
+        maxQueued = Math.max(maxQueued, queued.incrementAndGet());
+        SwingUtilities.invokeLater(() -> {
+            queued.decrementAndGet();
+            maxLagNanos = Math.max(maxLagNanos, System.nanoTime() - posted);
+
+            for (int key : keys) {
+                KeyEvent event = toEvent(key);
+
+                long start = System.nanoTime();
+                if (event.getID() == KeyEvent.KEY_TYPED) {
+                    listener.keyTyped(event);
+                } else {
+                    listener.keyReleased(event);
+                }
+                record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * Creates the key event of a key.
+     *
+     * @param key the key (a character, or minus the key code of a key released
+     * with the control key down).
+     * @return the key event.
+     */
+    private KeyEvent toEvent(int key) {
+        long when = System.currentTimeMillis();
+
+        if (key >= 0) {
+            return new KeyEvent(source, KeyEvent.KEY_TYPED, when, 0,
+                    KeyEvent.VK_UNDEFINED, (char) key);
+        }
+        int modifiers = (key == CLEAN) ? 0 : InputEvent.CTRL_DOWN_MASK;
+        return new KeyEvent(source, KeyEvent.KEY_RELEASED, when, modifiers,
+                -key, KeyEvent.CHAR_UNDEFINED);
+    }
+
+    /**
+     * Records the latency of a handler. Must run on the event dispatch
+     * thread.
+     *
+     * @param nanos the latency, in nanoseconds.
+     */
+    private void record(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    /**
+     * Waits for the keys of the window to be handled and returns its
+     * measures, starting a new window.
+     *
+     * @return the number of keys, the p50, p99 and maximum latencies (in
+     * nanoseconds), the maximum number of bursts queued and the maximum lag
+     * of a burst (in nanoseconds).
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private long[] closeWindow() throws InterruptedException {
+        long[] measures = new long[6];
+
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                Arrays.sort(latencies, 0, count);
+                measures[0] = count;
+                measures[1] = percentile(0.50);
+                measures[2] = percentile(0.99);
+                measures[3] = (count == 0) ? 0 : latencies[count - 1];
+                measures[5] = maxLagNanos;
+                count = 0;
+                maxLagNanos = 0;
+            });
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+
+        measures[4] = maxQueued;
+        maxQueued = 0;
+        return measures;
+    }
+
+    /**
+     * Returns a percentile of the latencies of the window (already sorted).
+     *
+     * @param fraction the percentile, from 0 to 1.
+     * @return the latency, in nanoseconds.
+     */
+    private long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        return latencies[Math.min(count - 1, (int) (fraction * count))];
+    }
+
+    /**
+     * Returns the heap used by live objects.
+     *
+     * @return the heap used after a garbage collection, in MB.
+     */
+    private static double usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        memory.gc();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed() / 1e6;
+    }
+
+    /**
+     * Returns the next keys of the stream.
+     *
+     * @param n the number of keys.
+     * @return the keys.
+     */
+    private int[] nextKeys(int n) {
+        int[] keys = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            if (next == session.length) {
+                session = nextSession();
+                next = 0;
+            }
+            keys[i] = session[next++];
+        }
+
+        return keys;
+    }
+
+    /**
+     * Generates a random session: the keys of a calculation, sometimes with a
+     * function applied to its result, some corrections, undos and redos or
+     * memory keys.
+     *
+     * @return the keys of the session.
+     */
+    private int[] nextSession() {
+        String calculation = CalculatorBenchmark.randomSession(random);
+        int[] keys = new int[calculation.length() + 4];
+        int n = 0;
+
+        for (int i = 0; i < calculation.length(); i++) {
+            keys[n++] = calculation.charAt(i);
+        }
+
+        switch (random.nextInt(8)) {
+            case 0:
+                keys[n++] = FUNCTION_KEYS.charAt(
+                        random.nextInt(FUNCTION_KEYS.length()));
+                break;
+            case 1:
+                keys[n++] = UNDO;
+                keys[n++] = UNDO;
+                keys[n++] = REDO;
+                break;
+            case 2:
+                keys[n++] = MEMORY_ADD;
+                keys[n++] = MEMORY_RECALL;
+                break;
+            case 3:
+                keys[n++] = CLEAN;
+                break;
+        }
+        keys[n++] = 'c';
+
+        return Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * Runs the soak test on a new calculator window, and exits with status 1
+     * if it fails (2 if there is no display).
+     *
+     * @param args the command line arguments: "--duration seconds",
+     * "--window seconds", "--rate keys", "--seed n", "--max-heap-growth MB",
+     * "--max-latency-ratio r" and "--max-lag ms".
+     * @throws Exception if the test can't run.
+     */
+    public static void main(String[] args) throws Exception {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.err.println("The soak test needs a display (on a server, "
+                    + "run it under Xvfb: xvfb-run ant soak)");
+            System.exit(2);
+        }
+
+        int seconds = 60;
+        int windowSeconds = 10;
+        int rate = 2000;
+        long seed = 42;
+        double heapGrowth = 8.0;
+        double latencyRatio = 3.0;
+        int lag = 500;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--duration":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--window":
+                    windowSeconds = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--max-heap-growth":
+                    heapGrowth = Double.parseDouble(value);
+                    break;
+                case "--max-latency-ratio":
+                    latencyRatio = Double.parseDouble(value);
+                    break;
+                case "--max-lag":
+                    lag = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option "
+                            + args[i]);
+            }
+        }
+
+        CalculatorModel model = new CalculatorModel();
+        model.setHistoryDepth(CalculatorModel.DEFAULT_HISTORY_DEPTH);
+        model.setHistory(new CalculatorHistory(HISTORY_CAPACITY));
+
+        CalculatorView[] view = new CalculatorView[1];
+        SwingUtilities.invokeAndWait(() -> {
+            view[0] = new CalculatorView();
+            new CalculatorController(model, view[0]);
+        });
+
+        CalculatorSoak soak = new CalculatorSoak(view[0],
+                view[0].getKeyListeners()[0], seed);
+        soak.setDuration(seconds, windowSeconds);
+        soak.setRate(rate);
+        soak.setLimits(heapGrowth, latencyRatio, lag);
+
+        boolean passed = soak.run();
+        System.exit(passed ? 0 : 1);
+    }
+}